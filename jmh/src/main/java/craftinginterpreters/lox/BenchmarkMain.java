@@ -0,0 +1,38 @@
+package craftinginterpreters.lox;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/*
+ Runs JMH with the usual command line, but by default with the GC profiler, for allocation rates, and with
+ results saved as JSON under jmh-results/ named by the time of the run, so runs can be compared later.
+ Passing -prof or -rf/-rff replaces these defaults.
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(args);
+        ChainedOptionsBuilder builder = new OptionsBuilder().parent(options);
+
+        if (options.getProfilers().isEmpty()) {
+            builder.addProfiler(GCProfiler.class);
+        }
+        if (!options.getResultFormat().hasValue() && !options.getResult().hasValue()) {
+            Path directory = Paths.get("jmh-results");
+            Files.createDirectories(directory);
+            String name = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".json";
+            builder.resultFormat(ResultFormatType.JSON).result(directory.resolve(name).toString());
+        }
+
+        new Runner(builder.build()).run();
+    }
+}
@@ -0,0 +1,90 @@
+package craftinginterpreters.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ Each phase of running a script on its own. The Scanner produces tokens as the Parser asks for them, so
+ parse includes scanning; scan drains the Scanner by itself. interpret gets a freshly compiled program
+ every time from its own state, since running one leaves operator specializations behind in its AST. The
+ other phases don't pay for that compile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhaseBenchmark {
+    @Param({"fib", "binary_trees", "zoo", "string_building", "closure_counters"})
+    public String workload;
+
+    private String source;
+    private List<Stmt> parsed;
+
+    @Setup(Level.Trial)
+    public void load() {
+        source = Workloads.source(workload);
+        parsed = Workloads.parse(source);
+        Workloads.silence();
+    }
+
+    @TearDown(Level.Trial)
+    public void restore() {
+        Workloads.restore();
+    }
+
+    @Benchmark
+    public void scan(Blackhole blackhole) {
+        Scanner scanner = new Scanner(source, new CompileErrors());
+        Token token;
+        do {
+            token = scanner.nextToken();
+            blackhole.consume(token);
+        } while (token.type != TokenType.EOF);
+    }
+
+    @Benchmark
+    public List<Stmt> parse() {
+        return Workloads.parse(source);
+    }
+
+    /* Resolving only records what it finds on the nodes, so the same AST can be resolved again */
+    @Benchmark
+    public List<Stmt> resolve() {
+        new Resolver(new CompileErrors()).resolve(parsed);
+        return parsed;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void interpret(Fresh fresh) {
+        new Interpreter().interpret(fresh.program);
+    }
+
+    /* A program no run has touched yet, compiled again before each call to interpret */
+    @State(Scope.Thread)
+    public static class Fresh {
+        Program program;
+
+        @Setup(Level.Invocation)
+        public void compile(PhaseBenchmark benchmark) {
+            program = Workloads.compile(benchmark.source);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package craftinginterpreters.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ Whole scripts on every engine. Each script is compiled once per trial and run once during setup, so the VM's
+ bytecode and the Java the JIT generates for hot functions are made before anything is measured; the
+ iterations time running the program in a fresh Context, the way an embedder runs it again. The front end
+ is measured by PhaseBenchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorkloadBenchmark {
+    @Param({"fib", "binary_trees", "zoo", "string_building", "closure_counters"})
+    public String workload;
+
+    @Param({"tree", "closure", "vm", "jit"})
+    public String engine;
+
+    private Program program;
+
+    @Setup(Level.Trial)
+    public void load() {
+        program = Workloads.compile(Workloads.source(workload));
+        Workloads.silence();
+        Workloads.execute(program, engine);
+    }
+
+    @TearDown(Level.Trial)
+    public void restore() {
+        Workloads.restore();
+    }
+
+    @Benchmark
+    public void run() {
+        Workloads.execute(program, engine);
+    }
+}
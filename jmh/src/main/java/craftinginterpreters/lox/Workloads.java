@@ -0,0 +1,82 @@
+package craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/* The Lox scripts in bench/, and the steps Lox.main takes to run them, for the benchmarks to share */
+final class Workloads {
+    private static final PrintStream STDOUT = System.out;
+
+    private Workloads() {
+    }
+
+    static String source(String name) {
+        try (InputStream in = Workloads.class.getResourceAsStream("/workloads/" + name + ".lox")) {
+            if (in == null) {
+                throw new IllegalArgumentException("No workload named " + name + ".");
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /* What the scripts print is not what is being measured, and would end up in JMH's output */
+    static void silence() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    static void restore() {
+        System.setOut(STDOUT);
+    }
+
+    static List<Stmt> parse(String source) {
+        CompileErrors errors = new CompileErrors();
+        List<Stmt> statements = new Parser(new Scanner(source, errors), errors).parse();
+        check(errors);
+        return statements;
+    }
+
+    static Program compile(String source) {
+        List<Stmt> statements = parse(source);
+        CompileErrors errors = new CompileErrors();
+        Resolver resolver = new Resolver(errors);
+        resolver.resolve(statements);
+        check(errors);
+        new Optimizer().optimize(statements);
+        return new Program(statements, resolver.sites());
+    }
+
+    /* A script that doesn't compile fails the benchmark, like one that stops with a runtime error */
+    private static void check(CompileErrors errors) {
+        if (errors.hasErrors()) {
+            throw new IllegalStateException(String.join("\n", errors.messages()));
+        }
+    }
+
+    /*
+     Run a compiled program on one of the engines Lox's --engine option selects, in a fresh Context. A runtime
+     error fails the benchmark rather than timing a script that stopped early.
+     */
+    static void execute(Program program, String engine) {
+        Context.Engine selected;
+        try {
+            selected = Context.Engine.valueOf(engine.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("No engine named " + engine + ".");
+        }
+        Context context = new Context(selected);
+        if (!context.run(program)) {
+            RuntimeError error = context.error();
+            if (error == null) {
+                throw new IllegalStateException(String.join("\n", context.compileErrors()));
+            }
+            throw new IllegalStateException(error.getMessage() + " [line " + error.token.line + "]", error);
+        }
+    }
+}
@@ -0,0 +1,726 @@
+package craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/*
+ Saves resolved (and optimized) programs to .loxc files in a cache directory, so running an unchanged
+ script again can skip scanning, parsing, resolving and optimizing. A cache file starts with a header
+ holding the SHA-256 of the source, whether it was optimized, a version for the format and for the
+ shape of the AST, which is taken from the fields of the generated Expr and Stmt classes, and the build
+ of the interpreter that wrote it, so a rebuilt Resolver or Optimizer never loads what an older one
+ recorded. The header ends with the length and CRC-32 of the body. A file whose header doesn't match, or
+ whose body doesn't match its checksum, is ignored and written again.
+
+ Nodes are written depth first, each as a tag byte followed by its fields, including everything the
+ Resolver recorded. What the backends learn while running, like inline caches and specializations, starts
+ out fresh when a program is loaded, just as it would after resolving. Strings are written once and then
+ referred to by index, which keeps repeated names small and loads them as a single String each.
+ */
+class AstCache {
+    private static final int MAGIC = 0x4c4f5843; /* "LOXC" */
+    private static final int FORMAT_VERSION = 2;
+    /* Changes whenever a field is added to, removed from or changed in a node class */
+    private static final long AST_VERSION = fingerprint();
+    /* Changes whenever the interpreter is rebuilt */
+    private static final String BUILD_VERSION = buildVersion();
+
+    private static final byte NULL = 0;
+    private static final byte SUPER = 1, THIS = 2, SET = 3, GET = 4, CALL = 5, BINARY = 6, LOGICAL = 7,
+            GROUPING = 8, LITERAL = 9, UNARY = 10, VARIABLE = 11, ASSIGN = 12;
+    private static final byte CLASS = 13, RETURN = 14, FUNCTION = 15, WHILE = 16, IF = 17, BLOCK = 18,
+            EXPRESSION = 19, PRINT = 20, VAR = 21;
+
+    private static final byte NIL_VALUE = 0, TRUE_VALUE = 1, FALSE_VALUE = 2, NUMBER_VALUE = 3, STRING_VALUE = 4;
+
+    private final Path directory;
+
+    AstCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /* The program cached for source, or null if there is none that is up to date */
+    Program load(Path source, boolean optimized) throws IOException {
+        Path file = cacheFile(source);
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        byte[] hash = hash(source);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || in.readLong() != AST_VERSION
+                    || !in.readUTF().equals(BUILD_VERSION) || in.readBoolean() != optimized) {
+                return null;
+            }
+            byte[] cachedHash = new byte[hash.length];
+            in.readFully(cachedHash);
+            if (!Arrays.equals(hash, cachedHash)) {
+                return null;
+            }
+
+            int length = in.readInt();
+            long checksum = in.readLong();
+            if (length < 0 || length > Files.size(file)) {
+                return null;
+            }
+            byte[] body = new byte[length];
+            in.readFully(body);
+            if (in.read() != -1 || checksum(body) != checksum) {
+                return null;
+            }
+            return new Reader(new DataInputStream(new ByteArrayInputStream(body))).program();
+        } catch (IOException | RuntimeException e) {
+            /* A truncated or otherwise broken file is just out of date */
+            return null;
+        }
+    }
+
+    /* Write the program resolved from source, replacing any older cache file at once */
+    void save(Path source, boolean optimized, Program program) throws IOException {
+        /* The body is written first, so the header can hold its checksum */
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            new Writer(new DataOutputStream(body)).statements(program.statements);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        byte[] bytes = body.toByteArray();
+
+        Files.createDirectories(directory);
+        Path file = cacheFile(source);
+        Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(AST_VERSION);
+                out.writeUTF(BUILD_VERSION);
+                out.writeBoolean(optimized);
+                out.write(hash(source));
+                out.writeInt(bytes.length);
+                out.writeLong(checksum(bytes));
+                out.write(bytes);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /* Named after the script and a hash of its full path, so scripts with the same name don't collide */
+    private Path cacheFile(Path source) {
+        Path absolute = source.toAbsolutePath().normalize();
+        String name = String.format("%s.%08x.loxc", absolute.getFileName(), absolute.toString().hashCode());
+        return directory.resolve(name);
+    }
+
+    private static byte[] hash(Path source) throws IOException {
+        try (FileChannel channel = FileChannel.open(source)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    /*
+     The version from the jar's manifest, if there is one, and a hash of the jar or of the class files, since
+     a version alone doesn't change between builds of a snapshot
+     */
+    private static String buildVersion() {
+        String version = AstCache.class.getPackage().getImplementationVersion();
+        StringBuilder build = new StringBuilder(version == null ? "unversioned" : version);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            Path code = Path.of(AstCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            List<Path> files = new ArrayList<>();
+            if (Files.isDirectory(code)) {
+                try (Stream<Path> walk = Files.walk(code)) {
+                    walk.filter(path -> path.toString().endsWith(".class")).sorted().forEach(files::add);
+                }
+            } else {
+                files.add(code);
+            }
+            for (Path path : files) {
+                digest.update(code.relativize(path).toString().getBytes(StandardCharsets.UTF_8));
+                digest.update(Files.readAllBytes(path));
+            }
+            build.append('+');
+            for (byte b : Arrays.copyOf(digest.digest(), 8)) {
+                build.append(String.format("%02x", b));
+            }
+        } catch (IOException | URISyntaxException | NoSuchAlgorithmException | RuntimeException e) {
+            /* Without a location to hash, only the version can tell builds apart */
+        }
+        return build.toString();
+    }
+
+    private static long fingerprint() {
+        StringBuilder layout = new StringBuilder();
+        for (Class<?> base : new Class<?>[] {Expr.class, Stmt.class}) {
+            Class<?>[] nodes = base.getDeclaredClasses();
+            Arrays.sort(nodes, Comparator.comparing(Class::getName));
+            for (Class<?> node : nodes) {
+                layout.append(node.getName()).append('{');
+                Field[] fields = node.getDeclaredFields();
+                Arrays.sort(fields, Comparator.comparing(Field::getName));
+                for (Field field : fields) {
+                    layout.append(field.getGenericType().getTypeName()).append(' ').append(field.getName()).append(';');
+                }
+                layout.append('}');
+            }
+        }
+
+        long hash = 1125899906842597L;
+        for (int i = 0; i < layout.length(); i++) {
+            hash = 31 * hash + layout.charAt(i);
+        }
+        return hash;
+    }
+
+    private static class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void statements(List<Stmt> statements) {
+            writeInt(statements.size());
+            for (Stmt statement : statements) {
+                write(statement);
+            }
+        }
+
+        private void write(Stmt stmt) {
+            if (stmt == null) {
+                writeByte(NULL);
+            } else {
+                stmt.accept(this);
+            }
+        }
+
+        private void write(Expr expr) {
+            if (expr == null) {
+                writeByte(NULL);
+            } else {
+                expr.accept(this);
+            }
+        }
+
+        private void expressions(List<Expr> expressions) {
+            writeInt(expressions.size());
+            for (Expr expr : expressions) {
+                write(expr);
+            }
+        }
+
+        private void tokens(List<Token> tokens) {
+            if (tokens == null) {
+                writeInt(-1);
+                return;
+            }
+            writeInt(tokens.size());
+            for (Token token : tokens) {
+                write(token);
+            }
+        }
+
+        /* Only what can't be derived from the type: the name or text, and the literal */
+        private void write(Token token) {
+            writeByte(token.type.ordinal());
+            writeInt(token.line);
+            if (token.type.lexeme == null) {
+                write(token.lexeme);
+            }
+            if (token.type == TokenType.STRING || token.type == TokenType.NUMBER) {
+                value(token.literal);
+            }
+        }
+
+        private void value(Object value) {
+            if (value == null) {
+                writeByte(NIL_VALUE);
+            } else if (value instanceof Boolean) {
+                writeByte((Boolean)value ? TRUE_VALUE : FALSE_VALUE);
+            } else if (value instanceof Double) {
+                writeByte(NUMBER_VALUE);
+                try {
+                    out.writeDouble((Double)value);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            } else {
+                writeByte(STRING_VALUE);
+                write(value.toString());
+            }
+        }
+
+        private void write(String string) {
+            Integer index = strings.get(string);
+            if (index != null) {
+                writeInt(index);
+                return;
+            }
+
+            strings.put(string, strings.size());
+            writeInt(-1);
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeInt(bytes.length);
+            try {
+                out.write(bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void writeByte(int value) {
+            try {
+                out.writeByte(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void writeInt(int value) {
+            try {
+                out.writeInt(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void writeBoolean(boolean value) {
+            writeByte(value ? 1 : 0);
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            writeByte(SUPER);
+            write(expr.keyword);
+            write(expr.method);
+            writeInt(expr.depth);
+            writeInt(expr.index);
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            writeByte(THIS);
+            write(expr.keyword);
+            writeInt(expr.depth);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            writeByte(SET);
+            write(expr.object);
+            write(expr.name);
+            write(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            writeByte(GET);
+            write(expr.object);
+            write(expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            writeByte(CALL);
+            write(expr.callee);
+            write(expr.paren);
+            expressions(expr.arguments);
+            writeBoolean(expr.isTailCall);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            writeByte(BINARY);
+            write(expr.left);
+            write(expr.operator);
+            write(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            writeByte(LOGICAL);
+            write(expr.left);
+            write(expr.operator);
+            write(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            writeByte(GROUPING);
+            write(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            writeByte(LITERAL);
+            value(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            writeByte(UNARY);
+            write(expr.operator);
+            write(expr.right);
+            return null;
+        }
+
+        /* The declaration is only used by the Optimizer, which has already run */
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            writeByte(VARIABLE);
+            write(expr.name);
+            writeInt(expr.depth);
+            writeInt(expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            writeByte(ASSIGN);
+            write(expr.name);
+            write(expr.value);
+            writeInt(expr.depth);
+            writeInt(expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            writeByte(CLASS);
+            write(stmt.name);
+            write(stmt.superclass);
+            writeInt(stmt.methods.size());
+            for (Stmt.Function method : stmt.methods) {
+                write(method);
+            }
+            writeInt(stmt.slot);
+            tokens(stmt.superMethods);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            writeByte(RETURN);
+            write(stmt.keyword);
+            write(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            writeByte(FUNCTION);
+            write(stmt.name);
+            tokens(stmt.parameters);
+            statements(stmt.body);
+            writeInt(stmt.slot);
+            writeBoolean(stmt.isMethod);
+            writeBoolean(stmt.hasClosures);
+            writeInt(stmt.frameSize);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            writeByte(WHILE);
+            write(stmt.condition);
+            write(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            writeByte(IF);
+            write(stmt.condition);
+            write(stmt.thenBranch);
+            write(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            writeByte(BLOCK);
+            statements(stmt.statements);
+            writeInt(stmt.frameSize);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            writeByte(EXPRESSION);
+            write(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            writeByte(PRINT);
+            write(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            writeByte(VAR);
+            write(stmt.name);
+            write(stmt.initializer);
+            writeInt(stmt.slot);
+            writeBoolean(stmt.isReassigned);
+            return null;
+        }
+    }
+
+    private static class Reader {
+        private static final TokenType[] TYPES = TokenType.values();
+
+        private final DataInputStream in;
+        private final List<String> strings = new ArrayList<>();
+        private final Map<String, Symbol> symbols = new HashMap<>();
+        /* Property access sites are numbered again from 0 as they are read, as the Resolver numbered them */
+        private int sites = 0;
+
+        Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        Program program() throws IOException {
+            List<Stmt> statements = statements();
+            return new Program(statements, sites);
+        }
+
+        List<Stmt> statements() throws IOException {
+            int count = in.readInt();
+            List<Stmt> statements = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                statements.add(stmt());
+            }
+            return statements;
+        }
+
+        private List<Expr> expressions() throws IOException {
+            int count = in.readInt();
+            List<Expr> expressions = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                expressions.add(expr());
+            }
+            return expressions;
+        }
+
+        private List<Token> tokens() throws IOException {
+            int count = in.readInt();
+            if (count < 0) {
+                return null;
+            }
+            List<Token> tokens = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                tokens.add(token());
+            }
+            return tokens;
+        }
+
+        private Token token() throws IOException {
+            TokenType type = TYPES[in.readUnsignedByte()];
+            int line = in.readInt();
+            switch (type) {
+                case IDENTIFIER:
+                    return new Token(type, symbol(), line);
+                case THIS:
+                    return new Token(type, Symbol.THIS, line);
+                case SUPER:
+                    return new Token(type, Symbol.SUPER, line);
+                case STRING:
+                case NUMBER:
+                    return new Token(type, string(), value(), line);
+            }
+            return new Token(type, type.lexeme, null, line);
+        }
+
+        /* Interns each name once, however many tokens refer to it */
+        private Symbol symbol() throws IOException {
+            String name = string();
+            Symbol symbol = symbols.get(name);
+            if (symbol == null) {
+                symbol = Symbol.of(name);
+                symbols.put(name, symbol);
+            }
+            return symbol;
+        }
+
+        private Object value() throws IOException {
+            switch (in.readByte()) {
+                case NIL_VALUE: return null;
+                case TRUE_VALUE: return true;
+                case FALSE_VALUE: return false;
+                case NUMBER_VALUE: return in.readDouble();
+                case STRING_VALUE: return string();
+            }
+            throw new IOException("Bad value tag.");
+        }
+
+        private String string() throws IOException {
+            int index = in.readInt();
+            if (index >= 0) {
+                return strings.get(index);
+            }
+
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            String string = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(string);
+            return string;
+        }
+
+        private Expr expr() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case SUPER: {
+                    Expr.Super expr = new Expr.Super(token(), token());
+                    expr.depth = in.readInt();
+                    expr.index = in.readInt();
+                    return expr;
+                }
+                case THIS: {
+                    Expr.This expr = new Expr.This(token());
+                    expr.depth = in.readInt();
+                    return expr;
+                }
+                case SET: {
+                    Expr.Set expr = new Expr.Set(expr(), token(), expr());
+                    expr.site = sites++;
+                    return expr;
+                }
+                case GET: {
+                    Expr.Get expr = new Expr.Get(expr(), token());
+                    expr.site = sites++;
+                    return expr;
+                }
+                case CALL: {
+                    Expr.Call expr = new Expr.Call(expr(), token(), expressions());
+                    expr.isTailCall = in.readBoolean();
+                    return expr;
+                }
+                case BINARY:
+                    return new Expr.Binary(expr(), token(), expr());
+                case LOGICAL:
+                    return new Expr.Logical(expr(), token(), expr());
+                case GROUPING:
+                    return new Expr.Grouping(expr());
+                case LITERAL:
+                    return new Expr.Literal(value());
+                case UNARY:
+                    return new Expr.Unary(token(), expr());
+                case VARIABLE: {
+                    Expr.Variable expr = new Expr.Variable(token());
+                    expr.depth = in.readInt();
+                    expr.slot = in.readInt();
+                    return expr;
+                }
+                case ASSIGN: {
+                    Expr.Assign expr = new Expr.Assign(token(), expr());
+                    expr.depth = in.readInt();
+                    expr.slot = in.readInt();
+                    return expr;
+                }
+            }
+            throw new IOException("Bad expression tag " + tag + ".");
+        }
+
+        private Stmt stmt() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case CLASS: {
+                    Token name = token();
+                    Expr.Variable superclass = (Expr.Variable)expr();
+                    int count = in.readInt();
+                    List<Stmt.Function> methods = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        methods.add((Stmt.Function)stmt());
+                    }
+                    Stmt.Class stmt = new Stmt.Class(name, superclass, methods);
+                    stmt.slot = in.readInt();
+                    stmt.superMethods = tokens();
+                    return stmt;
+                }
+                case RETURN:
+                    return new Stmt.Return(token(), expr());
+                case FUNCTION: {
+                    Stmt.Function stmt = new Stmt.Function(token(), tokens(), statements());
+                    stmt.slot = in.readInt();
+                    stmt.isMethod = in.readBoolean();
+                    stmt.hasClosures = in.readBoolean();
+                    stmt.frameSize = in.readInt();
+                    return stmt;
+                }
+                case WHILE:
+                    return new Stmt.While(expr(), stmt());
+                case IF:
+                    return new Stmt.If(expr(), stmt(), stmt());
+                case BLOCK: {
+                    Stmt.Block stmt = new Stmt.Block(statements());
+                    stmt.frameSize = in.readInt();
+                    return stmt;
+                }
+                case EXPRESSION:
+                    return new Stmt.Expression(expr());
+                case PRINT:
+                    return new Stmt.Print(expr());
+                case VAR: {
+                    Stmt.Var stmt = new Stmt.Var(token(), expr());
+                    stmt.slot = in.readInt();
+                    stmt.isReassigned = in.readBoolean();
+                    return stmt;
+                }
+            }
+            throw new IOException("Bad statement tag " + tag + ".");
+        }
+    }
+}
@@ -0,0 +1,556 @@
+package craftinginterpreters.lox;
+/* Compile a resolved AST into bytecode for the VM. */
+
+import java.util.ArrayList;
+import java.util.List;
+
+class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int MAX_LOCALS = 256;
+    private static final int MAX_UPVALUES = 256;
+    private static final int MAX_CONSTANTS = 65536;
+    private static final int MAX_JUMP = 65535;
+
+    private enum FunctionType {
+        SCRIPT,
+        FUNCTION,
+        INITIALIZER,
+        METHOD
+    }
+
+    private static class Local {
+        final String name;
+        final int depth;
+        boolean isCaptured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class Upvalue {
+        final int index;
+        final boolean isLocal;
+
+        Upvalue(int index, boolean isLocal) {
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+
+    /* Everything we need to know about the function currently being compiled */
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final VmFunction function;
+        final FunctionType type;
+        final List<Local> locals = new ArrayList<>();
+        final List<Upvalue> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+
+        FunctionState(FunctionState enclosing, VmFunction function, FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+
+            /* Slot 0 holds the receiver in methods, and the function being called everywhere else */
+            locals.add(new Local(type == FunctionType.METHOD || type == FunctionType.INITIALIZER ? "this" : "", 0));
+        }
+    }
+
+    private FunctionState current;
+
+    /* Nodes without a token of their own borrow the last one we saw for error reporting */
+    private Token lastToken;
+
+    private final CompileErrors errors;
+
+    BytecodeCompiler(CompileErrors errors) {
+        this.errors = errors;
+    }
+
+    /* Compile a whole program into the body of an implicit top level function */
+    VmFunction compile(List<Stmt> statements) {
+        current = new FunctionState(null, new VmFunction(null, 0, 0), FunctionType.SCRIPT);
+        for (Stmt stmt : statements) {
+            compile(stmt);
+        }
+        emitReturn(null);
+        return current.function;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private Chunk chunk() {
+        return current.function.chunk;
+    }
+
+    private void write(int b, Token token) {
+        if (token != null) {
+            lastToken = token;
+        }
+        chunk().write(b, lastToken);
+    }
+
+    private void emit(byte op, Token token) {
+        write(op, token);
+    }
+
+    private void emit(byte op, int operand, Token token) {
+        write(op, token);
+        write(operand, token);
+    }
+
+    private void emitShort(byte op, int operand, Token token) {
+        write(op, token);
+        write(operand >> 8, token);
+        write(operand, token);
+    }
+
+    private int makeConstant(Object value, Token token) {
+        int index = chunk().addConstant(value);
+        if (index >= MAX_CONSTANTS) {
+            errors.error(token != null ? token : lastToken, "Too many constants in one chunk.");
+            return 0;
+        }
+        return index;
+    }
+
+    /* Emit a jump with a placeholder offset, returning where the offset needs to be patched in */
+    private int emitJump(byte op, Token token) {
+        emitShort(op, 0xffff, token);
+        return chunk().count - 2;
+    }
+
+    private void patchJump(int offset, Token token) {
+        int jump = chunk().count - offset - 2;
+        if (jump > MAX_JUMP) {
+            errors.error(token != null ? token : lastToken, "Too much code to jump over.");
+        }
+        chunk().code[offset] = (byte)(jump >> 8);
+        chunk().code[offset + 1] = (byte)jump;
+    }
+
+    private void emitLoop(int loopStart, Token token) {
+        int offset = chunk().count - loopStart + 3;
+        if (offset > MAX_JUMP) {
+            errors.error(token != null ? token : lastToken, "Loop body too large.");
+        }
+        emitShort(OpCode.LOOP, offset, token);
+    }
+
+    /* Initializers always hand back the instance they were called on */
+    private void emitReturn(Token token) {
+        if (current.type == FunctionType.INITIALIZER) {
+            emit(OpCode.GET_LOCAL, 0, token);
+        } else {
+            emit(OpCode.NIL, token);
+        }
+        emit(OpCode.RETURN, token);
+    }
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope(Token token) {
+        current.scopeDepth--;
+
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            if (locals.get(locals.size() - 1).isCaptured) {
+                emit(OpCode.CLOSE_UPVALUE, token);
+            } else {
+                emit(OpCode.POP, token);
+            }
+            locals.remove(locals.size() - 1);
+        }
+    }
+
+    private void addLocal(String name, Token token) {
+        if (current.locals.size() == MAX_LOCALS) {
+            errors.error(token, "Too many local variables in function.");
+            return;
+        }
+        current.locals.add(new Local(name, current.scopeDepth));
+    }
+
+    /*
+     The value for a declaration is on top of the stack. Locals simply stay where they are; globals get
+     stored by name.
+     */
+    private void defineVariable(Token name) {
+        if (current.scopeDepth > 0) {
+            addLocal(name.lexeme, name);
+            return;
+        }
+        emitShort(OpCode.DEFINE_GLOBAL, makeConstant(name.lexeme, name), name);
+    }
+
+    private int resolveLocal(FunctionState state, String name) {
+        for (int i = state.locals.size() - 1; i >= 0; i--) {
+            if (state.locals.get(i).name.equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState state, String name, Token token) {
+        if (state.enclosing == null) {
+            return -1;
+        }
+
+        int local = resolveLocal(state.enclosing, name);
+        if (local != -1) {
+            state.enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(state, local, true, token);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, name, token);
+        if (upvalue != -1) {
+            return addUpvalue(state, upvalue, false, token);
+        }
+
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, int index, boolean isLocal, Token token) {
+        for (int i = 0; i < state.upvalues.size(); i++) {
+            Upvalue upvalue = state.upvalues.get(i);
+            if (upvalue.index == index && upvalue.isLocal == isLocal) {
+                return i;
+            }
+        }
+
+        if (state.upvalues.size() == MAX_UPVALUES) {
+            errors.error(token, "Too many closure variables in function.");
+            return 0;
+        }
+        state.upvalues.add(new Upvalue(index, isLocal));
+        state.function.upvalueCount = state.upvalues.size();
+        return state.upvalues.size() - 1;
+    }
+
+    private void namedVariable(String name, Token token, Expr value) {
+        byte getOp, setOp;
+        int arg = resolveLocal(current, name);
+        if (arg != -1) {
+            getOp = OpCode.GET_LOCAL;
+            setOp = OpCode.SET_LOCAL;
+        } else if ((arg = resolveUpvalue(current, name, token)) != -1) {
+            getOp = OpCode.GET_UPVALUE;
+            setOp = OpCode.SET_UPVALUE;
+        } else {
+            arg = makeConstant(name, token);
+            if (value != null) {
+                compile(value);
+                emitShort(OpCode.SET_GLOBAL, arg, token);
+            } else {
+                emitShort(OpCode.GET_GLOBAL, arg, token);
+            }
+            return;
+        }
+
+        if (value != null) {
+            compile(value);
+            emit(setOp, arg, token);
+        } else {
+            emit(getOp, arg, token);
+        }
+    }
+
+    private void function(Stmt.Function stmt, FunctionType type) {
+        VmFunction function = new VmFunction(stmt.name.lexeme, stmt.parameters.size(), stmt.name.line);
+        current = new FunctionState(current, function, type);
+        beginScope();
+        for (Token param : stmt.parameters) {
+            addLocal(param.lexeme, param);
+        }
+        for (Stmt body : stmt.body) {
+            compile(body);
+        }
+        emitReturn(stmt.name);
+
+        /* No need to end the scope, returning discards the whole frame */
+        FunctionState compiled = current;
+        current = current.enclosing;
+
+        emitShort(OpCode.CLOSURE, makeConstant(compiled.function, stmt.name), stmt.name);
+        for (Upvalue upvalue : compiled.upvalues) {
+            write(upvalue.isLocal ? 1 : 0, stmt.name);
+            write(upvalue.index, stmt.name);
+        }
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        /*
+         Match the tree-walker and evaluate the superclass before the class name is bound. For a local class
+         we reserve its slot up front, so the superclass can sit above it as the hidden 'super' local.
+         */
+        int classSlot = -1;
+        if (current.scopeDepth > 0) {
+            emit(OpCode.NIL, stmt.name);
+            addLocal(stmt.name.lexeme, stmt.name);
+            classSlot = current.locals.size() - 1;
+        }
+
+        if (stmt.superclass != null) {
+            beginScope();
+            compile(stmt.superclass);
+            addLocal("super", stmt.superclass.name);
+        }
+
+        emitShort(OpCode.CLASS, makeConstant(stmt.name.lexeme, stmt.name), stmt.superclass == null ? stmt.name : stmt.superclass.name);
+        write(stmt.superclass == null ? 0 : 1, null);
+
+        for (Stmt.Function method : stmt.methods) {
+            FunctionType type = FunctionType.METHOD;
+            if (method.name.lexeme.equals("init")) {
+                type = FunctionType.INITIALIZER;
+            }
+            function(method, type);
+            emitShort(OpCode.METHOD, makeConstant(method.name.lexeme, method.name), method.name);
+        }
+
+        if (classSlot >= 0) {
+            emit(OpCode.SET_LOCAL, classSlot, stmt.name);
+            emit(OpCode.POP, stmt.name);
+        } else {
+            emitShort(OpCode.DEFINE_GLOBAL, makeConstant(stmt.name.lexeme, stmt.name), stmt.name);
+        }
+
+        if (stmt.superclass != null) {
+            endScope(stmt.name);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) {
+            emitReturn(stmt.keyword);
+        } else {
+            compile(stmt.value);
+            emit(OpCode.RETURN, stmt.keyword);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        /* Declare a local function before compiling its body so that it can call itself */
+        if (current.scopeDepth > 0) {
+            addLocal(stmt.name.lexeme, stmt.name);
+            function(stmt, FunctionType.FUNCTION);
+        } else {
+            function(stmt, FunctionType.FUNCTION);
+            defineVariable(stmt.name);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = chunk().count;
+        compile(stmt.condition);
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE, null);
+        emit(OpCode.POP, null);
+        compile(stmt.body);
+        emitLoop(loopStart, null);
+
+        patchJump(exitJump, null);
+        emit(OpCode.POP, null);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE, null);
+        emit(OpCode.POP, null);
+        compile(stmt.thenBranch);
+
+        int elseJump = emitJump(OpCode.JUMP, null);
+        patchJump(thenJump, null);
+        emit(OpCode.POP, null);
+        if (stmt.elseBranch != null) {
+            compile(stmt.elseBranch);
+        }
+        patchJump(elseJump, null);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        endScope(null);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(OpCode.POP, null);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT, null);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            /* Lox variables default to null */
+            emit(OpCode.NIL, stmt.name);
+        }
+        defineVariable(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        namedVariable("this", expr.keyword, null);
+        namedVariable("super", expr.keyword, null);
+        emitShort(OpCode.GET_SUPER, makeConstant(expr.method.lexeme, expr.method), expr.method);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        namedVariable("this", expr.keyword, null);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+        emitShort(OpCode.SET_PROPERTY, makeConstant(expr.name.lexeme, expr.name), expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        emitShort(OpCode.GET_PROPERTY, makeConstant(expr.name.lexeme, expr.name), expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        compile(expr.callee);
+        for (Expr argument : expr.arguments) {
+            compile(argument);
+        }
+        emit(OpCode.CALL, expr.arguments.size(), expr.paren);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+
+        Token op = expr.operator;
+        switch (op.type) {
+            case MINUS:     emit(OpCode.SUBTRACT, op); break;
+            case SLASH:     emit(OpCode.DIVIDE, op); break;
+            case STAR:      emit(OpCode.MULTIPLY, op); break;
+            case PLUS:      emit(OpCode.ADD, op); break;
+            case GREATER:   emit(OpCode.GREATER, op); break;
+            case GREATEREQ: emit(OpCode.GREATER_EQUAL, op); break;
+            case LESS:      emit(OpCode.LESS, op); break;
+            case LESSEQ:    emit(OpCode.LESS_EQUAL, op); break;
+            case EQEQ:      emit(OpCode.EQUAL, op); break;
+            case BANGEQ:
+                emit(OpCode.EQUAL, op);
+                emit(OpCode.NOT, op);
+                break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+
+        /* Leave the left operand as the result if it short circuits */
+        if (expr.operator.type == TokenType.OR) {
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE, expr.operator);
+            int endJump = emitJump(OpCode.JUMP, expr.operator);
+            patchJump(elseJump, expr.operator);
+            emit(OpCode.POP, expr.operator);
+            compile(expr.right);
+            patchJump(endJump, expr.operator);
+        } else {
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE, expr.operator);
+            emit(OpCode.POP, expr.operator);
+            compile(expr.right);
+            patchJump(endJump, expr.operator);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(OpCode.NIL, null);
+        } else if (expr.value.equals(true)) {
+            emit(OpCode.TRUE, null);
+        } else if (expr.value.equals(false)) {
+            emit(OpCode.FALSE, null);
+        } else {
+            emitShort(OpCode.CONSTANT, makeConstant(expr.value, null), null);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+
+        switch (expr.operator.type) {
+            case MINUS:
+                emit(OpCode.NEGATE, expr.operator);
+                break;
+            case BANG:
+                emit(OpCode.NOT, expr.operator);
+                break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        namedVariable(expr.name.lexeme, expr.name, null);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        namedVariable(expr.name.lexeme, expr.name, expr.value);
+        return null;
+    }
+}
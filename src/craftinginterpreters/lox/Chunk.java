@@ -0,0 +1,43 @@
+package craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/* A compiled sequence of bytecode along with the constants it refers to */
+class Chunk {
+    byte[] code = new byte[64];
+    int count = 0;
+
+    /* The source token each byte was compiled from, so runtime errors can report the right line */
+    Token[] tokens = new Token[64];
+
+    Object[] constants = new Object[8];
+    int constantCount = 0;
+    private final Map<Object, Integer> constantIndexes = new HashMap<>();
+
+    void write(int b, Token token) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            tokens = Arrays.copyOf(tokens, count * 2);
+        }
+        code[count] = (byte)b;
+        tokens[count] = token;
+        count++;
+    }
+
+    /* Returns the index of value in the constant pool, adding it if it's not there already */
+    int addConstant(Object value) {
+        Integer index = constantIndexes.get(value);
+        if (index != null) {
+            return index;
+        }
+
+        if (constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        }
+        constants[constantCount] = value;
+        constantIndexes.put(value, constantCount);
+        return constantCount++;
+    }
+}
@@ -0,0 +1,54 @@
+package craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ The compile errors found in one compile, in the order they were reported. Each compile gets its own, handed
+ to every phase that can find errors, so compiles on different threads never see each other's. The command
+ line also has them printed as they are reported, so they come out in order with anything the program prints.
+ */
+public final class CompileErrors {
+    private final List<String> messages = new ArrayList<>();
+    /* Where each error is also printed when it is reported, or null */
+    private final PrintStream echo;
+
+    public CompileErrors() {
+        this(null);
+    }
+
+    CompileErrors(PrintStream echo) {
+        this.echo = echo;
+    }
+
+    void error(int line, String message) {
+        report(line, "", message);
+    }
+
+    void error(Token token, String message) {
+        if (token.type == TokenType.EOF) {
+            report(token.line, "at end", message);
+        } else {
+            report(token.line, " at '" + token.lexeme + "'", message);
+        }
+    }
+
+    private synchronized void report(int line, String where, String message) {
+        String error = String.format("[line %s] Error %s: %s", line, where, message);
+        messages.add(error);
+        if (echo != null) {
+            echo.println(error);
+        }
+    }
+
+    public synchronized boolean hasErrors() {
+        return !messages.isEmpty();
+    }
+
+    /* Each error as jlox prints it, like "[line 1] Error at ';': Expect expression." */
+    public synchronized List<String> messages() {
+        return Collections.unmodifiableList(new ArrayList<>(messages));
+    }
+}
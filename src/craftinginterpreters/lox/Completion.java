@@ -0,0 +1,14 @@
+package craftinginterpreters.lox;
+
+/*
+ How a statement finished. Statements hand this back to the enclosing block, loop or call instead of
+ throwing, so leaving a function early costs a comparison at each level rather than an exception. RETURN
+ leaves its value in Interpreter.returnValue. TAIL_CALL is a return whose value is a call the function's
+ caller should make in its place, described by Interpreter's tail fields. break and continue would be further
+ constants, stopped by the loop that encloses them the way a call stops RETURN.
+ */
+enum Completion {
+    NORMAL,
+    RETURN,
+    TAIL_CALL
+}
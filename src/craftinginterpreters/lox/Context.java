@@ -0,0 +1,89 @@
+package craftinginterpreters.lox;
+
+import java.util.List;
+
+/*
+ One place to run Programs: its own globals, call stack and runtime error state. Contexts share nothing
+ with each other but the Programs they run, so a server can run one Program in many contexts at once,
+ each on its own thread. A context itself belongs to one thread at a time. Running several programs in
+ one context is like typing them into the REPL one after another: later ones see the earlier globals.
+ */
+public final class Context {
+    /* Which backend runs programs in this context */
+    public enum Engine {
+        TREE,
+        JIT,
+        CLOSURE,
+        VM
+    }
+
+    /* Shared by the contexts made without one of their own, so a function is only compiled once */
+    private static final class SharedJit {
+        static final JitCompiler INSTANCE = new JitCompiler(JitCompiler.DEFAULT_THRESHOLD, null);
+    }
+
+    private final Engine engine;
+    private final Interpreter interpreter = new Interpreter();
+    private final VM vm;
+    private RuntimeError error;
+    private List<String> compileErrors = List.of();
+
+    public Context(Engine engine) {
+        this(engine, engine == Engine.JIT ? SharedJit.INSTANCE : null);
+    }
+
+    Context(Engine engine, JitCompiler jit) {
+        this.engine = engine;
+        this.vm = engine == Engine.VM ? new VM() : null;
+        interpreter.jit = jit;
+    }
+
+    void setProfiler(Profiler profiler) {
+        interpreter.profiler = profiler;
+        if (vm != null) {
+            vm.profiler = profiler;
+        }
+    }
+
+    /*
+     Run program, returning false if it stopped with a runtime error or could not be compiled for this
+     context's engine. Compile errors leave error() null and are kept in compileErrors() instead.
+     */
+    public boolean run(Program program) {
+        error = null;
+        compileErrors = List.of();
+        try {
+            switch (engine) {
+                case VM:
+                    VmFunction script = program.bytecode();
+                    if (script == null) {
+                        compileErrors = program.bytecodeErrors();
+                        return false;
+                    }
+                    vm.interpret(script);
+                    break;
+                case CLOSURE:
+                    NodeCompiler.run(interpreter, program);
+                    break;
+                default:
+                    interpreter.interpret(program);
+                    break;
+            }
+            return true;
+        } catch (RuntimeError err) {
+            error = err;
+            Events.runtimeError(err.getMessage(), err.token.line);
+            return false;
+        }
+    }
+
+    /* The error the last run stopped with, or null if it completed or never started */
+    public RuntimeError error() {
+        return error;
+    }
+
+    /* The errors that kept the last run's program from compiling for this context's engine, if any */
+    public List<String> compileErrors() {
+        return compileErrors;
+    }
+}
@@ -1,57 +1,113 @@
 package craftinginterpreters.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
+/*
+ The global environment is indexed by Symbol id, since globals can be referenced before they are declared
+ and redefined at will. Every other environment is a fixed-size frame of slots; the Resolver has already
+ worked out how many locals each scope declares and which slot each one lives in.
+ */
 class Environment {
+    /*
+     A slot holding this marker keeps its value unboxed in numbers[] instead. Boxing happens lazily, the first
+     time the value is read by code that wants an Object, and the box is then kept in the slot.
+     */
+    private static final Object UNBOXED = new Object();
+    private static final Object[] NO_SLOTS = new Object[0];
+    /* What a global holds until it is defined */
+    private static final Object UNDEFINED = new Object();
+
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    private Object[] values;
+    private final Object[] slots;
+    private double[] numbers;
 
     /* Constructor for global scope */
     public Environment(){
         enclosing = null;
+        values = new Object[0];
+        slots = null;
     }
 
-    public Environment(Environment enclosing) {
+    public Environment(Environment enclosing, int size) {
         this.enclosing = enclosing;
+        this.values = null;
+        this.slots = size == 0 ? NO_SLOTS : new Object[size];
+        if (Stats.enabled) {
+            Stats.environments.increment();
+        }
     }
 
-    void define(String name, Object value) {
-        values.put(name, value);
+    void define(Symbol name, Object value) {
+        if (name.id >= values.length) {
+            /* Make room for every symbol so far, not just this one */
+            int length = values.length;
+            values = Arrays.copyOf(values, Math.max(Symbol.count(), name.id + 1));
+            Arrays.fill(values, length, values.length, UNDEFINED);
+        }
+        values[name.id] = value;
     }
 
-    Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
-        }
+    void define(int slot, Object value) {
+        slots[slot] = value;
+    }
 
-        if (enclosing != null) {
-            return enclosing.get(name);
+    Object get(Token name) {
+        int id = name.symbol.id;
+        if (id < values.length && values[id] != UNDEFINED) {
+            return values[id];
         }
 
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
     void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
+        int id = name.symbol.id;
+        if (id < values.length && values[id] != UNDEFINED) {
+            values[id] = value;
             return;
         }
 
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
+        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    }
+
+    Object get(int slot) {
+        Object value = slots[slot];
+        if (value == UNBOXED) {
+            value = numbers[slot];
+            slots[slot] = value;
         }
+        return value;
+    }
 
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    protected Object getAt(int distance, int slot) {
+        return ancestor(distance).get(slot);
     }
 
-    protected Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    protected void assignAt(int distance, int slot, Object value) {
+        ancestor(distance).slots[slot] = value;
     }
 
-    protected void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+    /* Read a slot that should hold a number without boxing it */
+    double getNumberAt(int distance, int slot) {
+        Environment env = ancestor(distance);
+        Object value = env.slots[slot];
+        if (value == UNBOXED) {
+            return env.numbers[slot];
+        }
+        if (value instanceof Double) {
+            return (double)value;
+        }
+        throw new UnexpectedResult(value);
+    }
+
+    void assignNumberAt(int distance, int slot, double value) {
+        Environment env = ancestor(distance);
+        if (env.numbers == null) {
+            env.numbers = new double[env.slots.length];
+        }
+        env.numbers[slot] = value;
+        env.slots[slot] = UNBOXED;
     }
 
     protected Environment ancestor(int distance) {
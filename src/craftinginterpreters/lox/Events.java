@@ -0,0 +1,162 @@
+package craftinginterpreters.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/*
+ Java Flight Recorder events for what Lox code does, so a recording shows slow Lox calls next to GC pauses
+ and the rest of the JVM. Every event is disabled until a recording turns it on, e.g. with a .jfc file
+ that sets craftinginterpreters.lox.FunctionCall#enabled=true.
+
+ Loading an event class sets up much of JFR, which costs a few hundred milliseconds at startup, so no event
+ is created until JFR has been started, from the command line or later on with jcmd. After that, begin*()
+ asks the event's type whether it is enabled before creating one, so a call allocates nothing unless its own
+ event is being recorded, and returns null otherwise; end*() does nothing with null. Java stack traces would
+ only show the interpreter, so none are recorded.
+ */
+final class Events {
+    @Name("craftinginterpreters.lox.FunctionCall")
+    @Label("Lox Function Call")
+    @Description("A call to a Lox function or method, including any calls it made in tail position")
+    @Category("Lox")
+    @Enabled(false)
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class FunctionCall extends Event {
+        @Label("Function")
+        String function;
+
+        @Label("Line")
+        @Description("Where the function is declared")
+        int line;
+    }
+
+    @Name("craftinginterpreters.lox.Instantiation")
+    @Label("Lox Instantiation")
+    @Description("Creating an instance of a Lox class, including running its initializer")
+    @Category("Lox")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class Instantiation extends Event {
+        @Label("Class")
+        String className;
+    }
+
+    @Name("craftinginterpreters.lox.RuntimeError")
+    @Label("Lox Runtime Error")
+    @Category("Lox")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class LoxError extends Event {
+        @Label("Message")
+        String message;
+
+        @Label("Line")
+        int line;
+    }
+
+    @Name("craftinginterpreters.lox.CompilePhase")
+    @Label("Lox Compile Phase")
+    @Description("Parsing, resolving or optimizing a script. Parsing includes scanning, which it drives.")
+    @Category("Lox")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class CompilePhase extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Script")
+        String script;
+    }
+
+    /* Looked up the first time JFR is found running, since loading this class is what sets it up */
+    private static final class Types {
+        static final EventType CALL = EventType.getEventType(FunctionCall.class);
+        static final EventType INSTANTIATION = EventType.getEventType(Instantiation.class);
+        static final EventType ERROR = EventType.getEventType(LoxError.class);
+        static final EventType PHASE = EventType.getEventType(CompilePhase.class);
+    }
+
+    private Events() {
+    }
+
+    static FunctionCall beginCall() {
+        if (!FlightRecorder.isInitialized() || !Types.CALL.isEnabled()) {
+            return null;
+        }
+        FunctionCall event = new FunctionCall();
+        event.begin();
+        return event;
+    }
+
+    static void endCall(FunctionCall event, String function, int line) {
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.function = function;
+                event.line = line;
+                event.commit();
+            }
+        }
+    }
+
+    static Instantiation beginInstantiation() {
+        if (!FlightRecorder.isInitialized() || !Types.INSTANTIATION.isEnabled()) {
+            return null;
+        }
+        Instantiation event = new Instantiation();
+        event.begin();
+        return event;
+    }
+
+    static void endInstantiation(Instantiation event, String className) {
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.className = className;
+                event.commit();
+            }
+        }
+    }
+
+    /* Every error a Context's run stops with, whether or not anything reports it, which is at most one per run */
+    static void runtimeError(String message, int line) {
+        if (!FlightRecorder.isInitialized() || !Types.ERROR.isEnabled()) {
+            return;
+        }
+        LoxError event = new LoxError();
+        if (event.shouldCommit()) {
+            event.message = message;
+            event.line = line;
+            event.commit();
+        }
+    }
+
+    static CompilePhase beginPhase() {
+        if (!FlightRecorder.isInitialized() || !Types.PHASE.isEnabled()) {
+            return null;
+        }
+        CompilePhase event = new CompilePhase();
+        event.begin();
+        return event;
+    }
+
+    static void endPhase(CompilePhase event, String phase, String script) {
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.phase = phase;
+                event.script = script;
+                event.commit();
+            }
+        }
+    }
+}
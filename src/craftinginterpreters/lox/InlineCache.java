@@ -0,0 +1,164 @@
+package craftinginterpreters.lox;
+
+/*
+ Remembers, at one property access site, where each receiver shape found the property: a field index,
+ or for a get of a name the shape has no field for, the method from the class. For a set it remembers
+ the index and the shape the instance ends up with. A site that sees more than MAX_ENTRIES shapes is
+ megamorphic and goes to a table shared by all sites in its context instead. Shapes and classes never
+ change once created, so nothing here needs invalidating.
+
+ Each context makes its own classes and so its own shapes, so caches belong to the context rather than the
+ tree: the Resolver numbers every Get and Set in a program from 0, the Program records how many sites it
+ has, and each Interpreter keeps an array of caches that size for every program it runs. A context's
+ caches and shapes go away with it.
+ */
+class InlineCache {
+    private static final int MAX_ENTRIES = 4;
+    static final int MEGAMORPHIC_SIZE = 1024;
+
+    private final Symbol name;
+    /* Filled from the start, so the first null ends the entries */
+    private final Entry[] entries = new Entry[MAX_ENTRIES];
+    private final Entry[] megamorphic;
+
+    InlineCache(Symbol name, Entry[] megamorphic) {
+        this.name = name;
+        this.megamorphic = megamorphic;
+    }
+
+    Object get(LoxInstance instance, Token name) {
+        Shape shape = instance.shape;
+        for (Entry entry : entries) {
+            if (entry == null) break;
+            if (entry.shape == shape) {
+                hit();
+                return instance.read(name, entry.index, (LoxFunction)entry.target);
+            }
+        }
+
+        Entry entry = lookup(megamorphic, shape, this.name, false);
+        remember(entry);
+        return instance.read(name, entry.index, (LoxFunction)entry.target);
+    }
+
+    /*
+     The unbound method a get would bind, so a call can skip binding it. null when the instance has a field
+     by that name, or no such property at all, in which case get() is what the caller wants.
+     */
+    LoxFunction findMethod(LoxInstance instance) {
+        Shape shape = instance.shape;
+        for (Entry entry : entries) {
+            if (entry == null) break;
+            if (entry.shape == shape) {
+                hit();
+                return method(entry.index, entry.target);
+            }
+        }
+
+        Entry entry = lookup(megamorphic, shape, name, false);
+        remember(entry);
+        return method(entry.index, entry.target);
+    }
+
+    void set(LoxInstance instance, Object value) {
+        Shape shape = instance.shape;
+        for (Entry entry : entries) {
+            if (entry == null) break;
+            if (entry.shape == shape) {
+                hit();
+                instance.write(entry.index, (Shape)entry.target, value);
+                return;
+            }
+        }
+
+        Entry entry = lookup(megamorphic, shape, name, true);
+        remember(entry);
+        instance.write(entry.index, (Shape)entry.target, value);
+    }
+
+    /* A method found for a call is read without going through LoxInstance.read(), so count it here */
+    private static LoxFunction method(int index, Object target) {
+        if (index >= 0) {
+            return null;
+        }
+        if (Stats.enabled && target != null) {
+            Stats.methodReads.increment();
+        }
+        return (LoxFunction)target;
+    }
+
+    private static void hit() {
+        if (Stats.enabled) {
+            Stats.inlineCacheHits.increment();
+        }
+    }
+
+    /* Every miss ends up here */
+    private void remember(Entry entry) {
+        if (Stats.enabled) {
+            Stats.inlineCacheMisses.increment();
+        }
+        for (int i = 0; i < MAX_ENTRIES; i++) {
+            if (entries[i] == null) {
+                entries[i] = entry;
+                return;
+            }
+        }
+    }
+
+    /* For access sites without a cache of their own */
+    static Object getUncached(LoxInstance instance, Token name) {
+        Entry entry = lookup(null, instance.shape, name.symbol, false);
+        return instance.read(name, entry.index, (LoxFunction)entry.target);
+    }
+
+    static void setUncached(LoxInstance instance, Token name, Object value) {
+        Entry entry = lookup(null, instance.shape, name.symbol, true);
+        instance.write(entry.index, (Shape)entry.target, value);
+    }
+
+    /* Immutable, so a site and the megamorphic table can share one */
+    static final class Entry {
+        final Shape shape;
+        final Symbol name;
+        final boolean isSet;
+        final int index;
+        /* A LoxFunction or null for gets, the shape after the write for sets */
+        final Object target;
+
+        Entry(Shape shape, Symbol name, boolean isSet, int index, Object target) {
+            this.shape = shape;
+            this.name = name;
+            this.isSet = isSet;
+            this.index = index;
+            this.target = target;
+        }
+    }
+
+    /* Look the property up in the megamorphic table, if there is one, or else on the shape */
+    private static Entry lookup(Entry[] megamorphic, Shape shape, Symbol name, boolean isSet) {
+        int index = 0;
+        if (megamorphic != null) {
+            int hash = (System.identityHashCode(shape) * 31 + name.id) * 2 + (isSet ? 1 : 0);
+            index = hash & (MEGAMORPHIC_SIZE - 1);
+            Entry entry = megamorphic[index];
+            if (entry != null && entry.shape == shape && entry.isSet == isSet && entry.name == name) {
+                return entry;
+            }
+        }
+
+        Entry entry;
+        int field = shape.indexOf(name);
+        if (isSet) {
+            entry = field >= 0
+                    ? new Entry(shape, name, true, field, shape)
+                    : new Entry(shape, name, true, shape.size(), shape.withField(name));
+        } else {
+            entry = new Entry(shape, name, false, field, field >= 0 ? null : shape.classs.findMethod(name));
+        }
+        if (megamorphic != null) {
+            megamorphic[index] = entry;
+        }
+        return entry;
+    }
+}
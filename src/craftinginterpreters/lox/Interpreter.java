@@ -4,63 +4,109 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
+public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Completion> {
     final Environment globals = new Environment();
     private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
 
-    public Interpreter(){
-        globals.define("clock", new LoxCallable() {
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return (double)System.currentTimeMillis() / 1000.0;
-            }
+    /*
+     Binary and Unary nodes remember which operand types they have seen in their specialization field and take
+     a fast path for those types. If a guard ever fails the node falls back to GENERIC for good, so a node
+     with mixed operands can't flip back and forth.
+     */
+    private static final int UNINITIALIZED = 0;
+    private static final int NUMBERS = 1;
+    private static final int STRINGS = 2;
+    private static final int GENERIC = 3;
+
+    /* The value of the last return statement, read by the call it completes */
+    Object returnValue = null;
+
+    /* The call a TAIL_CALL completion asks for. tailReceiver is null unless the call is on an instance. */
+    LoxFunction tailFunction = null;
+    LoxInstance tailReceiver = null;
+    Object[] tailArguments = null;
+
+    /* Compiles hot functions to JVM classes, or null to interpret everything */
+    JitCompiler jit = null;
+
+    /* Told about every call to a Lox function while --profile is on, otherwise null */
+    Profiler profiler = null;
+
+    /*
+     The inline caches of the program whose code is running, indexed by site. Each program has its own array,
+     and a function switches to its program's while it runs, so code can call code from any program.
+     */
+    InlineCache[] caches = new InlineCache[0];
+    private final Map<Program, InlineCache[]> programCaches = new WeakHashMap<>();
+    private final InlineCache.Entry[] megamorphic = new InlineCache.Entry[InlineCache.MEGAMORPHIC_SIZE];
+
+    /* Shared with the VM so both backends start from the same globals */
+    static final LoxCallable CLOCK = new LoxCallable() {
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return call0(interpreter);
+        }
 
-            @Override
-            public int arity() {
-                return 0;
-            }
-        });
+        @Override
+        public Object call0(Interpreter interpreter) {
+            return (double)System.currentTimeMillis() / 1000.0;
+        }
+
+        @Override
+        public int arity() {
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    };
+
+    public Interpreter(){
+        globals.define(Symbol.of("clock"), CLOCK);
     }
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        return lookUpVariable(expr.name, expr.depth, expr.slot);
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
+    private Object lookUpVariable(Token name, int depth, int slot) {
+        if (depth >= 0) {
+            return environment.getAt(depth, slot);
         } else {
             return globals.get(name);
         }
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        return executeBlock(stmt.statements, new Environment(environment, stmt.frameSize));
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
+    public Completion visitWhileStmt(Stmt.While stmt) {
         while (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.body);
+            Completion completion = execute(stmt.body);
+            if (completion != Completion.NORMAL) {
+                return completion;
+            }
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Completion visitIfStmt(Stmt.If stmt) {
         if (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.thenBranch);
+            return execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
 
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
@@ -90,70 +136,90 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
 
         Object rvalue = evaluate(expr.value);
-        ((LoxInstance)lvalue).set(expr.name, rvalue);
+        cache(expr.site, expr.name.symbol).set((LoxInstance)lvalue, rvalue);
         return rvalue;
     }
 
-    protected void executeBlock(List<Stmt> statements, Environment environment) {
+    /* Stops at the first statement that doesn't complete normally and passes its completion on */
+    protected Completion executeBlock(List<Stmt> statements, Environment environment) {
         Environment prev = this.environment;
         try {
             this.environment = environment;
 
-            for (Stmt stmt : statements) {
-                execute(stmt);
+            /* Indexed rather than for-each, so running a block doesn't allocate an iterator */
+            for (int i = 0; i < statements.size(); i++) {
+                Completion completion = execute(statements.get(i));
+                if (completion != Completion.NORMAL) {
+                    return completion;
+                }
             }
+            return Completion.NORMAL;
         } finally {
             this.environment = prev;
         }
     }
 
+    /* The cache for a Get or Set site of the running program, made the first time this interpreter runs it */
+    InlineCache cache(int site, Symbol name) {
+        InlineCache cache = caches[site];
+        if (cache != null) return cache;
+        return caches[site] = new InlineCache(name, megamorphic);
+    }
+
     @Override
     public Object visitGetExpr(Expr.Get expr) {
         Object object = evaluate(expr.object);
         if (object instanceof LoxInstance) {
-            return ((LoxInstance) object).get(expr.name);
+            return cache(expr.site, expr.name.symbol).get((LoxInstance) object, expr.name);
         }
 
         throw new RuntimeError(expr.name, "Only object instances have properties.");
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
+    public Completion visitReturnStmt(Stmt.Return stmt) {
         Object value = stmt.value == null ? null : evaluate(stmt.value);
-
-        /* Use an exception get back up to call() */
-        throw new Return(value);
+        if (value == Completion.TAIL_CALL) {
+            return Completion.TAIL_CALL;
+        }
+        returnValue = value;
+        return Completion.RETURN;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
-        LoxFunction function = new LoxFunction(stmt, environment, false);
-        environment.define(stmt.name.lexeme, function);
-        return null;
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
+        LoxFunction function = new LoxFunction(stmt, environment, false, caches);
+        define(stmt.slot, stmt.name, function);
+        return Completion.NORMAL;
     }
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        /* 'this' is slot 0 of its method's frame */
+        return lookUpVariable(expr.keyword, expr.depth, 0);
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
-        LoxClass superclass = (LoxClass)environment.getAt(distance, "super");
-        LoxInstance object = (LoxInstance)environment.getAt(distance - 1, "this");
-
-        LoxFunction method = superclass.findMethod(object, expr.method.lexeme);
+        LoxInstance object = (LoxInstance)environment.getAt(expr.depth - 1, 0);
+        return superMethod(expr).bind(object);
+    }
 
+    /*
+     The 'super' environment, just outside the method's frame where 'this' is slot 0, holds what the class's
+     super expressions resolved to when the class was defined
+     */
+    private LoxFunction superMethod(Expr.Super expr) {
+        LoxFunction[] methods = (LoxFunction[])environment.getAt(expr.depth, 0);
+        LoxFunction method = methods[expr.index];
         if (method == null) {
             throw new RuntimeError(expr.method, String.format("Undefined property '%s'.", expr.method.lexeme));
         }
-
         return method;
     }
 
     @Override
-    public Void visitClassStmt(Stmt.Class stmt) {
+    public Completion visitClassStmt(Stmt.Class stmt) {
         Object superclass = null;
         if (stmt.superclass != null) {
             superclass = evaluate(stmt.superclass);
@@ -162,17 +228,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
         }
 
-        environment.define(stmt.name.lexeme, null);
+        define(stmt.slot, stmt.name, null);
 
         if (stmt.superclass != null) {
-            environment = new Environment(environment);
-            environment.define("super", superclass);
+            environment = new Environment(environment, 1);
+            environment.define(0, ((LoxClass)superclass).findMethods(stmt.superMethods));
         }
 
-        Map<String, LoxFunction> methods = new HashMap<>();
+        Map<Symbol, LoxFunction> methods = new HashMap<>();
         for (Stmt.Function method : stmt.methods) {
-            LoxFunction func = new LoxFunction(method, environment, method.name.equals("init"));
-            methods.put(method.name.lexeme, func);
+            LoxFunction func = new LoxFunction(method, environment, method.name.symbol == Symbol.INIT, caches);
+            methods.put(method.name.symbol, func);
         }
         LoxClass classs = new LoxClass(stmt.name.lexeme, (LoxClass) superclass, methods);
 
@@ -180,17 +246,28 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             environment = environment.enclosing;
         }
 
-        environment.assign(stmt.name, classs);
-        return null;
+        define(stmt.slot, stmt.name, classs);
+        return Completion.NORMAL;
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
+        if (expr.depth >= 0 && isNumeric(expr.value)) {
+            double value;
+            try {
+                value = evaluateNumber(expr.value);
+            } catch (UnexpectedResult result) {
+                environment.assignAt(expr.depth, expr.slot, result.value);
+                return result.value;
+            }
+            environment.assignNumberAt(expr.depth, expr.slot, value);
+            return value;
+        }
+
         Object value = evaluate(expr.value);
 
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        if (expr.depth >= 0) {
+            environment.assignAt(expr.depth, expr.slot, value);
         } else {
             globals.assign(expr.name, value);
         }
@@ -198,71 +275,230 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
+        if (stmt.slot >= 0 && stmt.initializer != null && isNumeric(stmt.initializer)) {
+            try {
+                environment.assignNumberAt(0, stmt.slot, evaluateNumber(stmt.initializer));
+            } catch (UnexpectedResult result) {
+                environment.define(stmt.slot, result.value);
+            }
+            return Completion.NORMAL;
+        }
+
         /* Lox variables default to null */
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme, value);
-        return null;
+        define(stmt.slot, stmt.name, value);
+        return Completion.NORMAL;
     }
 
-    public void interpret(List<Stmt> statements){
-        try {
-            for (Stmt stmt : statements){
-                execute(stmt);
-            }
-        } catch (RuntimeError err) {
-            Lox.runtimeError(err);
+    /* Bind a declared name in the current environment, either in its resolved slot or as a global */
+    private void define(int slot, Token name, Object value) {
+        if (slot >= 0) {
+            environment.define(slot, value);
+        } else {
+            globals.define(name.symbol, value);
+        }
+    }
+
+    /* A RuntimeError ends the run and is thrown on to the Context */
+    public void interpret(Program program){
+        enter(program);
+        for (Stmt stmt : program.statements){
+            execute(stmt);
         }
     }
 
+    /* Switch to program's caches, made the first time this interpreter runs it, to run its top level */
+    void enter(Program program) {
+        caches = programCaches.computeIfAbsent(program, p -> new InlineCache[p.sites]);
+    }
+
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.callee);
+        Object callee;
+        /* Run a method directly on its receiver instead of binding it first, unless the property is a field */
+        if (expr.callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get)expr.callee;
+            Object object = evaluate(get.object);
+            if (!(object instanceof LoxInstance)) {
+                throw new RuntimeError(get.name, "Only object instances have properties.");
+            }
+
+            LoxInstance instance = (LoxInstance)object;
+            InlineCache cache = cache(get.site, get.name.symbol);
+            LoxFunction method = cache.findMethod(instance);
+            if (method != null) {
+                if (expr.isTailCall) return tailCall(expr, method, instance);
+                return invoke(expr, method, instance);
+            }
+            callee = cache.get(instance, get.name);
+        } else if (expr.callee instanceof Expr.Super) {
+            Expr.Super superExpr = (Expr.Super)expr.callee;
+            LoxFunction method = superMethod(superExpr);
+            LoxInstance instance = (LoxInstance)environment.getAt(superExpr.depth - 1, 0);
+            if (expr.isTailCall) return tailCall(expr, method, instance);
+            return invoke(expr, method, instance);
+        } else {
+            callee = evaluate(expr.callee);
+        }
+
+        if (expr.isTailCall && callee instanceof LoxFunction) {
+            return tailCall(expr, (LoxFunction)callee, null);
+        }
+
+        /*
+         Calls with up to four arguments keep them in Java locals and go through the matching fixed-arity entry
+         point, so the only allocation left is the callee's frame. Arguments are all evaluated before the callee
+         is checked, as they always have been. This is all inline, rather than in a helper, so that each level
+         of Lox recursion costs one less Java frame.
+         */
+        List<Expr> arguments = expr.arguments;
+        switch (arguments.size()) {
+            case 0:
+                return checkCall(expr, callee, 0).call0(this);
+            case 1: {
+                Object a0 = evaluate(arguments.get(0));
+                return checkCall(expr, callee, 1).call1(this, a0);
+            }
+            case 2: {
+                Object a0 = evaluate(arguments.get(0));
+                Object a1 = evaluate(arguments.get(1));
+                return checkCall(expr, callee, 2).call2(this, a0, a1);
+            }
+            case 3: {
+                Object a0 = evaluate(arguments.get(0));
+                Object a1 = evaluate(arguments.get(1));
+                Object a2 = evaluate(arguments.get(2));
+                return checkCall(expr, callee, 3).call3(this, a0, a1, a2);
+            }
+            case 4: {
+                Object a0 = evaluate(arguments.get(0));
+                Object a1 = evaluate(arguments.get(1));
+                Object a2 = evaluate(arguments.get(2));
+                Object a3 = evaluate(arguments.get(3));
+                return checkCall(expr, callee, 4).call4(this, a0, a1, a2, a3);
+            }
+            default: {
+                List<Object> args = evaluateArguments(expr);
+                return checkCall(expr, callee, args.size()).call(this, args);
+            }
+        }
+    }
+
+    private Object invoke(Expr.Call expr, LoxFunction method, LoxInstance instance) {
+        List<Expr> arguments = expr.arguments;
+        switch (arguments.size()) {
+            case 0:
+                checkCall(expr, method, 0);
+                return method.invoke0(this, instance);
+            case 1: {
+                Object a0 = evaluate(arguments.get(0));
+                checkCall(expr, method, 1);
+                return method.invoke1(this, instance, a0);
+            }
+            case 2: {
+                Object a0 = evaluate(arguments.get(0));
+                Object a1 = evaluate(arguments.get(1));
+                checkCall(expr, method, 2);
+                return method.invoke2(this, instance, a0, a1);
+            }
+            case 3: {
+                Object a0 = evaluate(arguments.get(0));
+                Object a1 = evaluate(arguments.get(1));
+                Object a2 = evaluate(arguments.get(2));
+                checkCall(expr, method, 3);
+                return method.invoke3(this, instance, a0, a1, a2);
+            }
+            case 4: {
+                Object a0 = evaluate(arguments.get(0));
+                Object a1 = evaluate(arguments.get(1));
+                Object a2 = evaluate(arguments.get(2));
+                Object a3 = evaluate(arguments.get(3));
+                checkCall(expr, method, 4);
+                return method.invoke4(this, instance, a0, a1, a2, a3);
+            }
+            default: {
+                List<Object> args = evaluateArguments(expr);
+                checkCall(expr, method, args.size());
+                return method.invoke(this, instance, args);
+            }
+        }
+    }
 
-        List<Object> args = new ArrayList<>();
+    /*
+     Rather than make a call in tail position, leave it for the LoxFunction whose body is returning to make in
+     its own loop, so tail recursion runs in constant Java stack. The arguments go in an array of their own as
+     evaluating them may run other tail calls.
+     */
+    private Object tailCall(Expr.Call expr, LoxFunction function, LoxInstance receiver) {
+        Object[] args = new Object[expr.arguments.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = evaluate(expr.arguments.get(i));
+        }
+        checkCall(expr, function, args.length);
+
+        tailFunction = function;
+        tailReceiver = receiver;
+        tailArguments = args;
+        return Completion.TAIL_CALL;
+    }
+
+    private List<Object> evaluateArguments(Expr.Call expr) {
+        List<Object> args = new ArrayList<>(expr.arguments.size());
         for (Expr argument : expr.arguments) {
             args.add(evaluate(argument));
         }
+        return args;
+    }
 
+    private LoxCallable checkCall(Expr.Call expr, Object callee, int count) {
         if (!(callee instanceof LoxCallable)) {
             throw new RuntimeError(expr.paren, "Can only call functions and classes.");
         }
 
         LoxCallable function = (LoxCallable)callee;
-
-        if (args.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, String.format("Expected %d arguments but got %d.", function.arity(), args.size()));
+        if (count != function.arity()) {
+            throw new RuntimeError(expr.paren, String.format("Expected %d arguments but got %d.", function.arity(), count));
         }
-        return function.call(this, args);
-    }
-
-    private void execute(Stmt statement) {
-        statement.accept(this);
+        return function;
     }
 
-    protected void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    private Completion execute(Stmt statement) {
+        return statement.accept(this);
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
+        /* A numeric assignment's value is thrown away here, so don't box it just to return it */
+        if (stmt.expression instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign)stmt.expression;
+            if (assign.depth >= 0 && isNumeric(assign.value)) {
+                try {
+                    environment.assignNumberAt(assign.depth, assign.slot, evaluateNumber(assign.value));
+                } catch (UnexpectedResult result) {
+                    environment.assignAt(assign.depth, assign.slot, result.value);
+                }
+                return Completion.NORMAL;
+            }
+        }
+
         evaluate(stmt.expression);
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Completion visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
         System.out.println(stringify(value));
-        return null;
+        return Completion.NORMAL;
     }
 
     /* Convert a lox object to a string */
-    private String stringify(Object obj){
+    static String stringify(Object obj){
         if (obj == null){
             return "nil";
         }
@@ -281,19 +517,208 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
+        if (expr.specialization == NUMBERS) {
+            /* Evaluate the operands unboxed; only the result gets boxed */
+            double left;
+            try {
+                left = evaluateNumber(expr.left);
+            } catch (UnexpectedResult result) {
+                return deoptimize(expr, result.value, evaluate(expr.right));
+            }
+            double right;
+            try {
+                right = evaluateNumber(expr.right);
+            } catch (UnexpectedResult result) {
+                return deoptimize(expr, left, result.value);
+            }
+            return numberBinary(expr.operator.type, left, right);
+        }
+
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
 
-        switch (expr.operator.type) {
+        switch (expr.specialization) {
+            case NUMBERS:
+                if (left instanceof Double && right instanceof Double) {
+                    return numberBinary(expr.operator.type, (double)left, (double)right);
+                }
+                break;
+            case STRINGS:
+                if (left instanceof CharSequence && right instanceof CharSequence) {
+                    return stringBinary(expr.operator, (CharSequence)left, (CharSequence)right);
+                }
+                break;
+            case GENERIC:
+                return genericBinary(expr.operator, left, right);
+        }
+
+        /* First evaluation, or the guard just failed */
+        if (expr.specialization != UNINITIALIZED) {
+            expr.specialization = GENERIC;
+        } else if (left instanceof Double && right instanceof Double) {
+            expr.specialization = NUMBERS;
+        } else if (left instanceof CharSequence && right instanceof CharSequence
+                && acceptsStrings(expr.operator.type)) {
+            expr.specialization = STRINGS;
+        } else {
+            expr.specialization = GENERIC;
+        }
+        return genericBinary(expr.operator, left, right);
+    }
+
+    private Object deoptimize(Expr.Binary expr, Object left, Object right) {
+        expr.specialization = GENERIC;
+        return genericBinary(expr.operator, left, right);
+    }
+
+    /* Whether the last evaluations of expr produced numbers, making evaluateNumber() worth trying */
+    private boolean isNumeric(Expr expr) {
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            return binary.specialization == NUMBERS && isArithmetic(binary.operator.type);
+        }
+        if (expr instanceof Expr.Unary) {
+            return ((Expr.Unary)expr).specialization == NUMBERS;
+        }
+        if (expr instanceof Expr.Grouping) {
+            return isNumeric(((Expr.Grouping)expr).expression);
+        }
+        if (expr instanceof Expr.Literal) {
+            return ((Expr.Literal)expr).value instanceof Double;
+        }
+        return false;
+    }
+
+    private static boolean isArithmetic(TokenType operator) {
+        return operator == TokenType.PLUS || operator == TokenType.MINUS
+                || operator == TokenType.STAR || operator == TokenType.SLASH;
+    }
+
+    /*
+     Evaluate an expression that is expected to produce a number without boxing it. Nested arithmetic and
+     local variables stay unboxed all the way down. If the value turns out not to be a number it is thrown
+     back to the caller in an UnexpectedResult.
+     */
+    private double evaluateNumber(Expr expr) {
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            if (binary.specialization == NUMBERS && isArithmetic(binary.operator.type)) {
+                double left;
+                try {
+                    left = evaluateNumber(binary.left);
+                } catch (UnexpectedResult result) {
+                    return expectNumber(deoptimize(binary, result.value, evaluate(binary.right)));
+                }
+                double right;
+                try {
+                    right = evaluateNumber(binary.right);
+                } catch (UnexpectedResult result) {
+                    return expectNumber(deoptimize(binary, left, result.value));
+                }
+                return arithmetic(binary.operator.type, left, right);
+            }
+        } else if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable)expr;
+            if (variable.depth >= 0) {
+                return environment.getNumberAt(variable.depth, variable.slot);
+            }
+        } else if (expr instanceof Expr.Literal) {
+            return expectNumber(((Expr.Literal)expr).value);
+        } else if (expr instanceof Expr.Grouping) {
+            return evaluateNumber(((Expr.Grouping)expr).expression);
+        } else if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary)expr;
+            if (unary.specialization == NUMBERS) {
+                double right;
+                try {
+                    right = evaluateNumber(unary.right);
+                } catch (UnexpectedResult result) {
+                    unary.specialization = GENERIC;
+                    checkUnaryOperand(unary.operator, result.value);
+                    return expectNumber(result.value);
+                }
+                return -right;
+            }
+        }
+
+        return expectNumber(evaluate(expr));
+    }
+
+    private static double expectNumber(Object value) {
+        if (value instanceof Double) {
+            return (double)value;
+        }
+        throw new UnexpectedResult(value);
+    }
+
+    private static double arithmetic(TokenType operator, double left, double right) {
+        switch (operator) {
+            case MINUS:
+                return left - right;
+            case SLASH:
+                return left / right;
+            case STAR:
+                return left * right;
+            default:
+                return left + right;
+        }
+    }
+
+    private Object numberBinary(TokenType operator, double left, double right) {
+        switch (operator) {
+            case MINUS:
+                return left - right;
+            case SLASH:
+                return left / right;
+            case STAR:
+                return left * right;
+            case PLUS:
+                return left + right;
+            case GREATER:
+                return left > right;
+            case GREATEREQ:
+                return left >= right;
+            case LESS:
+                return left < right;
+            case LESSEQ:
+                return left <= right;
+            case BANGEQ:
+                /* Double.compare rather than == so NaN and -0 behave the same as they do in isEqual */
+                return Double.compare(left, right) != 0;
+            case EQEQ:
+                return Double.compare(left, right) == 0;
+        }
+        return null;
+    }
+
+    /* The operators stringBinary() has a fast path for; any other one given two strings is an error */
+    private static boolean acceptsStrings(TokenType operator) {
+        return operator == TokenType.PLUS || operator == TokenType.EQEQ || operator == TokenType.BANGEQ;
+    }
+
+    private Object stringBinary(Token operator, CharSequence left, CharSequence right) {
+        switch (operator.type) {
+            case PLUS:
+                return LoxString.concat(left, right);
+            case BANGEQ:
+                return !LoxString.equal(left, right);
+            case EQEQ:
+                return LoxString.equal(left, right);
+        }
+        return genericBinary(operator, left, right);
+    }
+
+    private Object genericBinary(Token operator, Object left, Object right) {
+        switch (operator.type) {
             /* Arithmetic */
             case MINUS:
-                checkBinaryOperands(expr.operator, left, right);
+                checkBinaryOperands(operator, left, right);
                 return (double)left - (double)right;
             case SLASH:
-                checkBinaryOperands(expr.operator, left, right);
+                checkBinaryOperands(operator, left, right);
                 return (double)left / (double)right;
             case STAR:
-                checkBinaryOperands(expr.operator, left, right);
+                checkBinaryOperands(operator, left, right);
                 return (double)left * (double)right;
             case PLUS:
                 /* '+' is overloaded for addition and string concatenation. I'm going to break
@@ -303,17 +728,21 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 if (left instanceof Double && right instanceof Double) {
                     return (double)left + (double)right;
                 }
-                if (left instanceof String || right instanceof String) {
-                    return left.toString() + right.toString();
+                if (left instanceof CharSequence || right instanceof CharSequence) {
+                    return LoxString.concat(left, right);
                 }
-                throw new RuntimeError(expr.operator, "Operands must be numbers or strings.");
+                throw new RuntimeError(operator, "Operands must be numbers or strings.");
             case GREATER:
+                checkBinaryOperands(operator, left, right);
                 return (double)left > (double)right;
             case GREATEREQ:
+                checkBinaryOperands(operator, left, right);
                 return (double)left >= (double)right;
             case LESS:
+                checkBinaryOperands(operator, left, right);
                 return (double)left < (double)right;
             case LESSEQ:
+                checkBinaryOperands(operator, left, right);
                 return (double)left <= (double)right;
             case BANGEQ:
                 return !isEqual(left, right);
@@ -340,7 +769,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     }
 
-    private boolean isEqual(Object l, Object r){
+    static boolean isEqual(Object l, Object r){
         if (l == null && r == null){
             return true;
         }
@@ -349,6 +778,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             return false;
         }
 
+        /* Concatenation results are LoxStrings, so compare strings by their contents */
+        if (l instanceof CharSequence && r instanceof CharSequence) {
+            return LoxString.equal((CharSequence)l, (CharSequence)r);
+        }
+
         return l.equals(r);
     }
 
@@ -368,14 +802,28 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
+        /* Only negation has a specialized form, '!' works the same on everything */
+        if (expr.specialization == NUMBERS) {
+            try {
+                return -evaluateNumber(expr.right);
+            } catch (UnexpectedResult result) {
+                expr.specialization = GENERIC;
+                checkUnaryOperand(expr.operator, result.value);
+                return -(double)result.value;
+            }
+        }
+
         Object right = evaluate(expr.right);
+        if (expr.specialization == UNINITIALIZED) {
+            expr.specialization = expr.operator.type == TokenType.MINUS && right instanceof Double ? NUMBERS : GENERIC;
+        }
 
         switch (expr.operator.type){
             case MINUS:
                 checkUnaryOperand(expr.operator, right);
                 return -(double)right;
             case BANG:
-                return isTruthy(right);
+                return !isTruthy(right);
             default:
                 return null;
         }
@@ -383,7 +831,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     /* Nil and false are falsey, everything else is truthy */
-    private boolean isTruthy(Object obj){
+    static boolean isTruthy(Object obj){
         if (obj == null) {
             return false;
         }
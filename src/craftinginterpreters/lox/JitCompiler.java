@@ -0,0 +1,687 @@
+package craftinginterpreters.lox;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/*
+ Compile hot Lox functions into JVM classes so HotSpot can optimize them like any other Java code. A
+ function that has been called often enough is translated to Java source, compiled in memory with javac
+ and loaded as a hidden class, which LoxFunction then runs in place of interpreting the body. Its locals
+ live in Java local variables; anything it reads from enclosing scopes still goes through the closure's
+ Environment, so compiled and interpreted code share variables freely.
+
+ A javac run takes tens of milliseconds, so by default it happens on a background thread: the call that
+ makes a function hot only queues it, and the function is interpreted until its class is ready.
+
+ Functions that declare nested functions or classes could have their locals captured, so they are left to
+ the tree-walker, as is everything when the JVM we run on has no javac, as on a JRE.
+
+ The java.lang.classfile API would let us emit bytecode directly, but it isn't available on the JDKs we
+ support, so we go through javax.tools instead.
+ */
+class JitCompiler {
+    private static final String PACKAGE = "craftinginterpreters.lox";
+
+    /*
+     Implemented by every generated class. receiver is 'this' for methods and ignored otherwise. As with
+     LoxCallable, a class implements the entry point for its own arity and invoke() unpacks into that.
+     */
+    interface Code {
+        Object invoke(Interpreter interpreter, LoxInstance receiver, List<Object> arguments);
+
+        default Object invoke0(Interpreter interpreter, LoxInstance receiver) {
+            return invoke(interpreter, receiver, Collections.emptyList());
+        }
+
+        default Object invoke1(Interpreter interpreter, LoxInstance receiver, Object a0) {
+            return invoke(interpreter, receiver, Collections.singletonList(a0));
+        }
+
+        default Object invoke2(Interpreter interpreter, LoxInstance receiver, Object a0, Object a1) {
+            return invoke(interpreter, receiver, Arrays.asList(a0, a1));
+        }
+
+        default Object invoke3(Interpreter interpreter, LoxInstance receiver, Object a0, Object a1, Object a2) {
+            return invoke(interpreter, receiver, Arrays.asList(a0, a1, a2));
+        }
+
+        default Object invoke4(Interpreter interpreter, LoxInstance receiver, Object a0, Object a1, Object a2,
+                               Object a3) {
+            return invoke(interpreter, receiver, Arrays.asList(a0, a1, a2, a3));
+        }
+    }
+
+    /* The most parameters a function can have and still get its own entry point */
+    private static final int MAX_FIXED_ARITY = 4;
+
+    /* What we know about a declaration once we have tried to compile it */
+    static class Compiled {
+        /* null if the declaration couldn't be compiled */
+        final MethodHandle constructor;
+        final Token[] tokens;
+        final Object[] constants;
+
+        Compiled(MethodHandle constructor, Token[] tokens, Object[] constants) {
+            this.constructor = constructor;
+            this.tokens = tokens;
+            this.constants = constants;
+        }
+    }
+
+    static final Compiled FAILED = new Compiled(null, null, null);
+    /* Marks a declaration whose compilation has been handed to the executor and not finished yet */
+    private static final Compiled QUEUED = new Compiled(null, null, null);
+
+    static final int DEFAULT_THRESHOLD = 1000;
+
+    private final int threshold;
+    private final Path dumpDirectory;
+    private final Executor executor;
+    /* null when there is no javac to run */
+    private final Javac javac;
+    private int classCount = 0;
+
+    /* Compile on a daemon thread of our own */
+    JitCompiler(int threshold, Path dumpDirectory) {
+        this(threshold, dumpDirectory, Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "lox-jit");
+            thread.setDaemon(true);
+            return thread;
+        }), systemJavac());
+    }
+
+    /* An executor of Runnable::run compiles on the thread that made the function hot, before calling it */
+    JitCompiler(int threshold, Path dumpDirectory, Executor executor, Javac javac) {
+        this.threshold = threshold;
+        this.dumpDirectory = dumpDirectory;
+        this.executor = executor;
+        this.javac = javac;
+    }
+
+    /* The JDK's javac, or null on a JRE */
+    static Javac systemJavac() {
+        try {
+            return Javac.find();
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+
+    /*
+     Called each time the tree-walker is about to run a function. Returns compiled code closing over
+     closure once the function is hot, or null to keep interpreting it.
+
+     Contexts running the same Program share its declarations, so they share the compiled classes too. The
+     call count is racy, which only makes the threshold approximate; a declaration is queued once under its
+     lock, and Compiled's final fields make it safe to read without one.
+     */
+    Code compile(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+        if (declaration.compiled == null) {
+            if (++declaration.calls < threshold) {
+                return null;
+            }
+            synchronized (declaration) {
+                if (declaration.compiled != null) {
+                    return null;
+                }
+                declaration.compiled = QUEUED;
+            }
+            executor.execute(() -> {
+                Compiled compiled = FAILED;
+                try {
+                    compiled = generate(declaration, isInitializer);
+                } finally {
+                    declaration.compiled = compiled;
+                }
+            });
+        }
+
+        Compiled compiled = declaration.compiled;
+        if (compiled.constructor == null) {
+            return null;
+        }
+
+        try {
+            return (Code)compiled.constructor.invoke(closure, compiled.tokens, compiled.constants);
+        } catch (Throwable t) {
+            declaration.compiled = FAILED;
+            return null;
+        }
+    }
+
+    /* Synchronized for classCount, and so only one javac runs at a time */
+    private synchronized Compiled generate(Stmt.Function declaration, boolean isInitializer) {
+        if (javac == null) {
+            return FAILED;
+        }
+
+        String className = "Jit$" + declaration.name.lexeme + "$" + (classCount++);
+        Generator generator = new Generator(declaration, isInitializer);
+        String source;
+        try {
+            source = generator.generate(className);
+        } catch (Unsupported unsupported) {
+            return FAILED;
+        }
+
+        byte[] bytes = javac.compile(className, source, dumpDirectory != null);
+        dump(className, source, bytes);
+        if (bytes == null) {
+            return FAILED;
+        }
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            MethodHandle constructor = lookup.findConstructor(lookup.lookupClass(),
+                    MethodType.methodType(void.class, Environment.class, Token[].class, Object[].class));
+            return new Compiled(constructor, generator.tokens.toArray(new Token[0]), generator.constants.toArray());
+        } catch (ReflectiveOperationException e) {
+            return FAILED;
+        }
+    }
+
+    /*
+     Everything that touches javax.tools. A runtime without the java.compiler module can't even load a class
+     that uses it, so this is only loaded by find(), and JitCompiler treats a failure to link as no javac.
+     */
+    static final class Javac {
+        private final JavaCompiler compiler;
+
+        private Javac(JavaCompiler compiler) {
+            this.compiler = compiler;
+        }
+
+        static Javac find() {
+            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+            return compiler == null ? null : new Javac(compiler);
+        }
+
+        byte[] compile(String className, String source, boolean report) {
+            ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+
+            JavaFileObject sourceFile = new SimpleJavaFileObject(URI.create("string:///" + className + ".java"),
+                    JavaFileObject.Kind.SOURCE) {
+                @Override
+                public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                    return source;
+                }
+            };
+
+            StandardJavaFileManager standard = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8);
+            JavaFileManager fileManager = new ForwardingJavaFileManager<JavaFileManager>(standard) {
+                @Override
+                public JavaFileObject getJavaFileForOutput(Location location, String name, JavaFileObject.Kind kind,
+                                                           FileObject sibling) {
+                    return new SimpleJavaFileObject(URI.create("bytes:///" + name + ".class"), kind) {
+                        @Override
+                        public OutputStream openOutputStream() {
+                            return classBytes;
+                        }
+                    };
+                }
+            };
+
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"), "-g:none");
+            boolean ok = compiler.getTask(null, fileManager, diagnostics, options, null,
+                    Collections.singletonList(sourceFile)).call();
+
+            if (!ok) {
+                if (report) {
+                    for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                        System.err.println(className + ": " + diagnostic.getMessage(null));
+                    }
+                }
+                return null;
+            }
+            return classBytes.toByteArray();
+        }
+    }
+
+    /* Write out the generated source and class file so they can be inspected with javap */
+    private void dump(String className, String source, byte[] bytes) {
+        if (dumpDirectory == null) {
+            return;
+        }
+
+        try {
+            Files.createDirectories(dumpDirectory);
+            Files.write(dumpDirectory.resolve(className + ".java"), source.getBytes(StandardCharsets.UTF_8));
+            if (bytes != null) {
+                Files.write(dumpDirectory.resolve(className + ".class"), bytes);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not dump " + className + ": " + e.getMessage());
+        }
+    }
+
+    /* Thrown when a function uses something the generator doesn't handle */
+    private static class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    /* Translate one function declaration into the source of a Java class */
+    private static class Generator implements Expr.Visitor<String>, Stmt.Visitor<Void> {
+        private final Stmt.Function function;
+        private final boolean isInitializer;
+
+        final List<Token> tokens = new ArrayList<>();
+        final List<Object> constants = new ArrayList<>();
+
+        private final StringBuilder body = new StringBuilder();
+        private String indent = "        ";
+
+        /*
+         Ids of the Lox scopes enclosing the code being generated, innermost last. A local in scope n, slot m
+         becomes the Java variable sn_m.
+         */
+        private final List<Integer> scopes = new ArrayList<>();
+        private int scopeCount = 0;
+        private int tempCount = 0;
+
+        Generator(Stmt.Function function, boolean isInitializer) {
+            this.function = function;
+            this.isInitializer = isInitializer;
+        }
+
+        String generate(String className) {
+            scopes.add(scopeCount++);
+            List<Token> parameters = function.parameters;
+            int first = function.isMethod ? 1 : 0;
+            if (function.isMethod) {
+                line("Object " + local(0, 0) + " = receiver;");
+            }
+            boolean fixedArity = parameters.size() <= MAX_FIXED_ARITY;
+            for (int slot = first; slot < function.frameSize; slot++) {
+                int parameter = slot - first;
+                String value = "null";
+                if (parameter < parameters.size()) {
+                    value = fixedArity ? "a" + parameter : "arguments.get(" + parameter + ")";
+                }
+                line("Object " + local(0, slot) + " = " + value + ";");
+            }
+            for (Stmt stmt : function.body) {
+                generate(stmt);
+            }
+            line("return " + returnValue(null) + ";");
+
+            StringBuilder source = new StringBuilder();
+            source.append("package ").append(PACKAGE).append(";\n\n");
+            source.append("import java.util.List;\n\n");
+            source.append("final class ").append(className).append(" implements JitCompiler.Code {\n");
+            source.append("    private final Environment closure;\n");
+            source.append("    private final Token[] t;\n");
+            source.append("    private final Object[] k;\n\n");
+            source.append("    ").append(className).append("(Environment closure, Token[] t, Object[] k) {\n");
+            source.append("        this.closure = closure;\n");
+            source.append("        this.t = t;\n");
+            source.append("        this.k = k;\n");
+            source.append("    }\n\n");
+            source.append("    @Override\n");
+            source.append("    public String toString() {\n");
+            source.append("        return \"<fn ").append(function.name.lexeme).append(">\";\n");
+            source.append("    }\n\n");
+            source.append("    @Override\n");
+            source.append("    public Object invoke(Interpreter interpreter, LoxInstance receiver, ")
+                    .append("List<Object> arguments) {\n");
+            if (fixedArity) {
+                StringBuilder parameterList = new StringBuilder();
+                StringBuilder argumentList = new StringBuilder();
+                for (int i = 0; i < parameters.size(); i++) {
+                    parameterList.append(", Object a").append(i);
+                    argumentList.append(", arguments.get(").append(i).append(")");
+                }
+                source.append("        return invoke").append(parameters.size())
+                        .append("(interpreter, receiver").append(argumentList).append(");\n");
+                source.append("    }\n\n");
+                source.append("    @Override\n");
+                source.append("    public Object invoke").append(parameters.size())
+                        .append("(Interpreter interpreter, LoxInstance receiver").append(parameterList).append(") {\n");
+            }
+            source.append("        Object sink;\n");
+            for (int i = 0; i < tempCount; i++) {
+                source.append("        Object o").append(i).append(";\n");
+            }
+            source.append(body);
+            source.append("    }\n");
+            source.append("}\n");
+            return source.toString();
+        }
+
+        private void generate(Stmt stmt) {
+            stmt.accept(this);
+        }
+
+        private String generate(Expr expr) {
+            return expr.accept(this);
+        }
+
+        private void line(String code) {
+            body.append(indent).append(code).append('\n');
+        }
+
+        private String token(Token token) {
+            tokens.add(token);
+            return "t[" + (tokens.size() - 1) + "]";
+        }
+
+        private String constant(Object value) {
+            constants.add(value);
+            return "k[" + (constants.size() - 1) + "]";
+        }
+
+        private String temp() {
+            return "o" + (tempCount++);
+        }
+
+        private String local(int depth, int slot) {
+            return "s" + scopes.get(scopes.size() - 1 - depth) + "_" + slot;
+        }
+
+        /* Initializers always hand back 'this' */
+        private String returnValue(String value) {
+            if (isInitializer) {
+                return "receiver";
+            }
+            return value == null ? "null" : value;
+        }
+
+        private String variable(int depth, int slot, Token name) {
+            if (depth < 0) {
+                return "interpreter.globals.get(" + token(name) + ")";
+            }
+            if (depth < scopes.size()) {
+                return local(depth, slot);
+            }
+            return "closure.getAt(" + (depth - scopes.size()) + ", " + slot + ")";
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            String value = null;
+            if (stmt.value instanceof Expr.Call && ((Expr.Call)stmt.value).isTailCall) {
+                value = call((Expr.Call)stmt.value, true);
+            } else if (stmt.value != null) {
+                value = generate(stmt.value);
+            }
+            /* 'if (true)' keeps javac from rejecting any dead code after the return */
+            line("if (true) return " + returnValue(value) + ";");
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            line("while (JitRuntime.isTruthy(" + generate(stmt.condition) + ")) {");
+            String enclosing = indent;
+            indent += "    ";
+            generate(stmt.body);
+            indent = enclosing;
+            line("}");
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            line("if (JitRuntime.isTruthy(" + generate(stmt.condition) + ")) {");
+            String enclosing = indent;
+            indent += "    ";
+            generate(stmt.thenBranch);
+            indent = enclosing;
+            if (stmt.elseBranch != null) {
+                line("} else {");
+                indent += "    ";
+                generate(stmt.elseBranch);
+                indent = enclosing;
+            }
+            line("}");
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            line("{");
+            String enclosing = indent;
+            indent += "    ";
+            scopes.add(scopeCount++);
+            for (int slot = 0; slot < stmt.frameSize; slot++) {
+                line("Object " + local(0, slot) + " = null;");
+            }
+            for (Stmt statement : stmt.statements) {
+                generate(statement);
+            }
+            scopes.remove(scopes.size() - 1);
+            indent = enclosing;
+            line("}");
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            line("sink = " + generate(stmt.expression) + ";");
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            line("System.out.println(Interpreter.stringify(" + generate(stmt.expression) + "));");
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            /* Lox variables default to null, which is what the slot was initialized to */
+            if (stmt.initializer != null) {
+                line(local(0, stmt.slot) + " = " + generate(stmt.initializer) + ";");
+            }
+            return null;
+        }
+
+        @Override
+        public String visitSuperExpr(Expr.Super expr) {
+            return "JitRuntime.superMethod(" + token(expr.method) + ", "
+                    + variable(expr.depth, 0, expr.keyword) + ", " + expr.index + ", "
+                    + variable(expr.depth - 1, 0, expr.keyword) + ")";
+        }
+
+        @Override
+        public String visitThisExpr(Expr.This expr) {
+            return variable(expr.depth, 0, expr.keyword);
+        }
+
+        @Override
+        public String visitSetExpr(Expr.Set expr) {
+            String name = token(expr.name);
+            return "JitRuntime.set(interpreter, " + expr.site + ", " + name + ", JitRuntime.checkInstance(" + name
+                    + ", " + generate(expr.object) + "), " + generate(expr.value) + ")";
+        }
+
+        @Override
+        public String visitGetExpr(Expr.Get expr) {
+            return "JitRuntime.get(interpreter, " + expr.site + ", " + token(expr.name) + ", "
+                    + generate(expr.object) + ")";
+        }
+
+        @Override
+        public String visitCallExpr(Expr.Call expr) {
+            return call(expr, false);
+        }
+
+        /*
+         A call in tail position goes through JitRuntime's tail variants, which hand a call to a Lox function back
+         to LoxFunction as a TAIL_CALL to make in its own loop, so tail recursion doesn't grow the Java stack
+         once the function is compiled either
+         */
+        private String call(Expr.Call expr, boolean isTailCall) {
+            /*
+             A method call looks the method up on the receiver first, then reads the property as a plain get
+             only if it turned out to be a field, all before the arguments run, as in the tree-walker
+             */
+            if (expr.callee instanceof Expr.Get) {
+                Expr.Get get = (Expr.Get)expr.callee;
+                String name = token(get.name);
+                String receiver = temp();
+                String method = temp();
+                StringBuilder invoke = new StringBuilder(isTailCall ? "JitRuntime.tailInvoke(interpreter, "
+                        : "JitRuntime.invoke(interpreter, ");
+                invoke.append(token(expr.paren)).append(", ");
+                invoke.append(method).append(" = JitRuntime.findMethod(interpreter, ").append(get.site).append(", ")
+                        .append(name).append(", ").append(receiver).append(" = ").append(generate(get.object))
+                        .append("), ");
+                invoke.append(receiver).append(", ");
+                invoke.append(method).append(" == null ? JitRuntime.get(interpreter, ").append(get.site).append(", ")
+                        .append(name).append(", ").append(receiver).append(") : null");
+                for (Expr argument : expr.arguments) {
+                    invoke.append(", ").append(generate(argument));
+                }
+                return invoke.append(")").toString();
+            }
+
+            /* A super call runs the superclass's method on 'this' the same way, without binding it first */
+            if (expr.callee instanceof Expr.Super) {
+                Expr.Super superExpr = (Expr.Super)expr.callee;
+                StringBuilder invoke = new StringBuilder(isTailCall ? "JitRuntime.tailInvoke(interpreter, "
+                        : "JitRuntime.invoke(interpreter, ");
+                invoke.append(token(expr.paren)).append(", ");
+                invoke.append("JitRuntime.findSuperMethod(").append(token(superExpr.method)).append(", ")
+                        .append(variable(superExpr.depth, 0, superExpr.keyword)).append(", ")
+                        .append(superExpr.index).append("), ");
+                invoke.append(variable(superExpr.depth - 1, 0, superExpr.keyword)).append(", null");
+                for (Expr argument : expr.arguments) {
+                    invoke.append(", ").append(generate(argument));
+                }
+                return invoke.append(")").toString();
+            }
+
+            StringBuilder call = new StringBuilder(isTailCall ? "JitRuntime.tailCall(interpreter, "
+                    : "JitRuntime.call(interpreter, ");
+            call.append(token(expr.paren)).append(", ").append(generate(expr.callee));
+            for (Expr argument : expr.arguments) {
+                call.append(", ").append(generate(argument));
+            }
+            return call.append(")").toString();
+        }
+
+        @Override
+        public String visitBinaryExpr(Expr.Binary expr) {
+            String left = generate(expr.left);
+            String right = generate(expr.right);
+
+            switch (expr.operator.type) {
+                case EQEQ:
+                    return "JitRuntime.equal(" + left + ", " + right + ")";
+                case BANGEQ:
+                    return "JitRuntime.notEqual(" + left + ", " + right + ")";
+            }
+
+            String method;
+            switch (expr.operator.type) {
+                case MINUS:     method = "subtract"; break;
+                case SLASH:     method = "divide"; break;
+                case STAR:      method = "multiply"; break;
+                case PLUS:      method = "add"; break;
+                case GREATER:   method = "greater"; break;
+                case GREATEREQ: method = "greaterEqual"; break;
+                case LESS:      method = "less"; break;
+                case LESSEQ:    method = "lessEqual"; break;
+                default:
+                    throw new Unsupported();
+            }
+            return "JitRuntime." + method + "(" + token(expr.operator) + ", " + left + ", " + right + ")";
+        }
+
+        @Override
+        public String visitLogicalExpr(Expr.Logical expr) {
+            String temp = temp();
+            String left = generate(expr.left);
+            String right = generate(expr.right);
+            if (expr.operator.type == TokenType.OR) {
+                return "(JitRuntime.isTruthy(" + temp + " = " + left + ") ? " + temp + " : " + right + ")";
+            }
+            return "(!JitRuntime.isTruthy(" + temp + " = " + left + ") ? " + temp + " : " + right + ")";
+        }
+
+        @Override
+        public String visitGroupingExpr(Expr.Grouping expr) {
+            return generate(expr.expression);
+        }
+
+        @Override
+        public String visitLiteralExpr(Expr.Literal expr) {
+            if (expr.value == null) {
+                return "null";
+            }
+            if (expr.value instanceof Boolean) {
+                return (Boolean)expr.value ? "Boolean.TRUE" : "Boolean.FALSE";
+            }
+            /* Boxed once, up front, rather than on every evaluation */
+            return constant(expr.value);
+        }
+
+        @Override
+        public String visitUnaryExpr(Expr.Unary expr) {
+            String right = generate(expr.right);
+            switch (expr.operator.type) {
+                case MINUS:
+                    return "JitRuntime.negate(" + token(expr.operator) + ", " + right + ")";
+                case BANG:
+                    return "JitRuntime.not(" + right + ")";
+                default:
+                    throw new Unsupported();
+            }
+        }
+
+        @Override
+        public String visitVariableExpr(Expr.Variable expr) {
+            return variable(expr.depth, expr.slot, expr.name);
+        }
+
+        @Override
+        public String visitAssignExpr(Expr.Assign expr) {
+            String value = generate(expr.value);
+            if (expr.depth < 0) {
+                return "JitRuntime.assignGlobal(interpreter.globals, " + token(expr.name) + ", " + value + ")";
+            }
+            if (expr.depth < scopes.size()) {
+                return "(" + local(expr.depth, expr.slot) + " = " + value + ")";
+            }
+            return "JitRuntime.assignAt(closure, " + (expr.depth - scopes.size()) + ", " + expr.slot + ", " + value
+                    + ")";
+        }
+    }
+}
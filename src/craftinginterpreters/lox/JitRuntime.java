@@ -0,0 +1,268 @@
+package craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+/*
+ Helpers called from JIT compiled functions. Keeping the Lox semantics here rather than in the generated
+ source keeps the generated classes small, and these are all static so HotSpot can inline them.
+ */
+final class JitRuntime {
+    private JitRuntime() {
+    }
+
+    static boolean isTruthy(Object value) {
+        return Interpreter.isTruthy(value);
+    }
+
+    static Object not(Object value) {
+        return !Interpreter.isTruthy(value);
+    }
+
+    static Object negate(Token operator, Object operand) {
+        if (!(operand instanceof Double)) {
+            throw new RuntimeError(operator, "Operand must be a number.");
+        }
+        return -(double)operand;
+    }
+
+    private static void checkNumberOperands(Token operator, Object left, Object right) {
+        if (!(left instanceof Double && right instanceof Double)) {
+            throw new RuntimeError(operator, "Operands must be numbers.");
+        }
+    }
+
+    static Object add(Token operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double)left + (double)right;
+        }
+        if (left instanceof CharSequence || right instanceof CharSequence) {
+            return LoxString.concat(left, right);
+        }
+        throw new RuntimeError(operator, "Operands must be numbers or strings.");
+    }
+
+    static Object subtract(Token operator, Object left, Object right) {
+        checkNumberOperands(operator, left, right);
+        return (double)left - (double)right;
+    }
+
+    static Object multiply(Token operator, Object left, Object right) {
+        checkNumberOperands(operator, left, right);
+        return (double)left * (double)right;
+    }
+
+    static Object divide(Token operator, Object left, Object right) {
+        checkNumberOperands(operator, left, right);
+        return (double)left / (double)right;
+    }
+
+    static Object greater(Token operator, Object left, Object right) {
+        checkNumberOperands(operator, left, right);
+        return (double)left > (double)right;
+    }
+
+    static Object greaterEqual(Token operator, Object left, Object right) {
+        checkNumberOperands(operator, left, right);
+        return (double)left >= (double)right;
+    }
+
+    static Object less(Token operator, Object left, Object right) {
+        checkNumberOperands(operator, left, right);
+        return (double)left < (double)right;
+    }
+
+    static Object lessEqual(Token operator, Object left, Object right) {
+        checkNumberOperands(operator, left, right);
+        return (double)left <= (double)right;
+    }
+
+    static Object equal(Object left, Object right) {
+        return Interpreter.isEqual(left, right);
+    }
+
+    static Object notEqual(Object left, Object right) {
+        return !Interpreter.isEqual(left, right);
+    }
+
+    private static LoxCallable checkCall(Token paren, Object callee, int count) {
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+
+        LoxCallable function = (LoxCallable)callee;
+        if (count != function.arity()) {
+            throw new RuntimeError(paren, String.format("Expected %d arguments but got %d.", function.arity(), count));
+        }
+        return function;
+    }
+
+    /* Calls with up to four arguments resolve to these overloads rather than the varargs one */
+    static Object call(Interpreter interpreter, Token paren, Object callee) {
+        return checkCall(paren, callee, 0).call0(interpreter);
+    }
+
+    static Object call(Interpreter interpreter, Token paren, Object callee, Object a0) {
+        return checkCall(paren, callee, 1).call1(interpreter, a0);
+    }
+
+    static Object call(Interpreter interpreter, Token paren, Object callee, Object a0, Object a1) {
+        return checkCall(paren, callee, 2).call2(interpreter, a0, a1);
+    }
+
+    static Object call(Interpreter interpreter, Token paren, Object callee, Object a0, Object a1, Object a2) {
+        return checkCall(paren, callee, 3).call3(interpreter, a0, a1, a2);
+    }
+
+    static Object call(Interpreter interpreter, Token paren, Object callee, Object a0, Object a1, Object a2,
+                       Object a3) {
+        return checkCall(paren, callee, 4).call4(interpreter, a0, a1, a2, a3);
+    }
+
+    static Object call(Interpreter interpreter, Token paren, Object callee, Object... arguments) {
+        return checkCall(paren, callee, arguments.length).call(interpreter, Arrays.asList(arguments));
+    }
+
+    /* Like call(), for a method found by findMethod(), or a field's value when method is null */
+    static Object invoke(Interpreter interpreter, Token paren, Object method, Object receiver, Object callee) {
+        if (method == null) {
+            return call(interpreter, paren, callee);
+        }
+        checkCall(paren, method, 0);
+        return ((LoxFunction)method).invoke0(interpreter, (LoxInstance)receiver);
+    }
+
+    static Object invoke(Interpreter interpreter, Token paren, Object method, Object receiver, Object callee,
+                         Object a0) {
+        if (method == null) {
+            return call(interpreter, paren, callee, a0);
+        }
+        checkCall(paren, method, 1);
+        return ((LoxFunction)method).invoke1(interpreter, (LoxInstance)receiver, a0);
+    }
+
+    static Object invoke(Interpreter interpreter, Token paren, Object method, Object receiver, Object callee,
+                         Object a0, Object a1) {
+        if (method == null) {
+            return call(interpreter, paren, callee, a0, a1);
+        }
+        checkCall(paren, method, 2);
+        return ((LoxFunction)method).invoke2(interpreter, (LoxInstance)receiver, a0, a1);
+    }
+
+    static Object invoke(Interpreter interpreter, Token paren, Object method, Object receiver, Object callee,
+                         Object a0, Object a1, Object a2) {
+        if (method == null) {
+            return call(interpreter, paren, callee, a0, a1, a2);
+        }
+        checkCall(paren, method, 3);
+        return ((LoxFunction)method).invoke3(interpreter, (LoxInstance)receiver, a0, a1, a2);
+    }
+
+    static Object invoke(Interpreter interpreter, Token paren, Object method, Object receiver, Object callee,
+                         Object a0, Object a1, Object a2, Object a3) {
+        if (method == null) {
+            return call(interpreter, paren, callee, a0, a1, a2, a3);
+        }
+        checkCall(paren, method, 4);
+        return ((LoxFunction)method).invoke4(interpreter, (LoxInstance)receiver, a0, a1, a2, a3);
+    }
+
+    static Object invoke(Interpreter interpreter, Token paren, Object method, Object receiver, Object callee,
+                         Object... arguments) {
+        if (method == null) {
+            return call(interpreter, paren, callee, arguments);
+        }
+        checkCall(paren, method, arguments.length);
+        return ((LoxFunction)method).invoke(interpreter, (LoxInstance)receiver, Arrays.asList(arguments));
+    }
+
+    /*
+     A call in tail position. A call to a Lox function is left in the interpreter's tail fields for the calling
+     LoxFunction to make, as Interpreter.tailCall() does, and TAIL_CALL returned in place of a value.
+     */
+    static Object tailCall(Interpreter interpreter, Token paren, Object callee, Object... arguments) {
+        if (!(callee instanceof LoxFunction)) {
+            return call(interpreter, paren, callee, arguments);
+        }
+        checkCall(paren, callee, arguments.length);
+        return tail(interpreter, (LoxFunction)callee, null, arguments);
+    }
+
+    static Object tailInvoke(Interpreter interpreter, Token paren, Object method, Object receiver, Object callee,
+                             Object... arguments) {
+        if (method == null) {
+            return tailCall(interpreter, paren, callee, arguments);
+        }
+        checkCall(paren, method, arguments.length);
+        return tail(interpreter, (LoxFunction)method, (LoxInstance)receiver, arguments);
+    }
+
+    private static Object tail(Interpreter interpreter, LoxFunction function, LoxInstance receiver,
+                               Object[] arguments) {
+        interpreter.tailFunction = function;
+        interpreter.tailReceiver = receiver;
+        interpreter.tailArguments = arguments;
+        return Completion.TAIL_CALL;
+    }
+
+    /*
+     The unbound method a call of object.name runs, or null when name is a field. Unlike
+     InlineCache.findMethod(), this throws when the instance has no such property.
+     */
+    static LoxFunction findMethod(Interpreter interpreter, int site, Token name, Object object) {
+        if (object instanceof LoxInstance) {
+            LoxInstance instance = (LoxInstance)object;
+            LoxFunction method = interpreter.cache(site, name.symbol).findMethod(instance);
+            if (method == null && instance.shape.indexOf(name.symbol) < 0) {
+                throw new RuntimeError(name, String.format("Undefined property %s.", name.lexeme));
+            }
+            return method;
+        }
+
+        throw new RuntimeError(name, "Only object instances have properties.");
+    }
+
+    static Object get(Interpreter interpreter, int site, Token name, Object object) {
+        if (object instanceof LoxInstance) {
+            return interpreter.cache(site, name.symbol).get((LoxInstance)object, name);
+        }
+
+        throw new RuntimeError(name, "Only object instances have properties.");
+    }
+
+    /* Split out of set() so the object is checked before the value is evaluated, as in the tree-walker */
+    static LoxInstance checkInstance(Token name, Object object) {
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(name, "Only instances have fields.");
+        }
+        return (LoxInstance)object;
+    }
+
+    static Object set(Interpreter interpreter, int site, Token name, LoxInstance object, Object value) {
+        interpreter.cache(site, name.symbol).set(object, value);
+        return value;
+    }
+
+    static Object superMethod(Token method, Object methods, int index, Object object) {
+        return findSuperMethod(method, methods, index).bind((LoxInstance)object);
+    }
+
+    /* The unbound superclass method a call of super.method runs, for invoke() to run on 'this' */
+    static LoxFunction findSuperMethod(Token method, Object methods, int index) {
+        LoxFunction target = ((LoxFunction[])methods)[index];
+        if (target == null) {
+            throw new RuntimeError(method, String.format("Undefined property '%s'.", method.lexeme));
+        }
+        return target;
+    }
+
+    static Object assignAt(Environment environment, int distance, int slot, Object value) {
+        environment.assignAt(distance, slot, value);
+        return value;
+    }
+
+    static Object assignGlobal(Environment globals, Token name, Object value) {
+        globals.assign(name, value);
+        return value;
+    }
+}
@@ -4,32 +4,133 @@ package craftinginterpreters.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
+/*
+ The command line: runs one file, or the REPL, in a single Context. Each compile reports its errors to its
+ own CompileErrors, so any number of threads can compile and run Programs at once; the command line's only
+ prints them, and remembers that there were some for its exit code.
+ */
 public class Lox {
     private static boolean hadError = false;
     private static boolean hadRuntimeError = false;
-    private static final Interpreter interpreter = new Interpreter();
+    private static Context context;
+
+    private static Context.Engine engine = Context.Engine.TREE;
+    /* -O0 runs the program exactly as written, -O1 (the default) runs the Optimizer over it first */
+    static boolean optimize = true;
+    /* Whether to run each top-level declaration of a file as soon as it has been parsed */
+    private static boolean stream = false;
+    /* Where resolved programs are saved to skip the front end next time, or null to always compile */
+    private static AstCache cache;
+    /* Samples the running script's Lox call stack when --profile is given, or null */
+    private static Profiler profiler;
+    private static Path profileOutput;
+    /* The file being run, or null at the prompt. JFR events name it. */
+    private static String script;
 
     public static void main(String[] args) throws IOException{
-        if(args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-        }else if (args.length == 1){
-            runFile(args[0]);
+        String script = null;
+        int jitThreshold = JitCompiler.DEFAULT_THRESHOLD;
+        Path jitDump = null;
+        /* Compile hot functions on the thread that runs them, so exactly the same calls run compiled each time */
+        boolean jitSync = false;
+        for (String arg : args) {
+            if (arg.startsWith("--engine=")) {
+                String name = arg.substring("--engine=".length());
+                if (name.equals("tree")) {
+                    engine = Context.Engine.TREE;
+                } else if (name.equals("jit")) {
+                    engine = Context.Engine.JIT;
+                } else if (name.equals("closure")) {
+                    engine = Context.Engine.CLOSURE;
+                } else if (name.equals("vm")) {
+                    engine = Context.Engine.VM;
+                } else {
+                    usage();
+                }
+            } else if (arg.startsWith("--jit-threshold=")) {
+                try {
+                    jitThreshold = Integer.parseInt(arg.substring("--jit-threshold=".length()));
+                } catch (NumberFormatException e) {
+                    usage();
+                }
+            } else if (arg.startsWith("--jit-dump=")) {
+                jitDump = Paths.get(arg.substring("--jit-dump=".length()));
+            } else if (arg.equals("--jit-sync")) {
+                jitSync = true;
+            } else if (arg.startsWith("--cache=")) {
+                cache = new AstCache(Paths.get(arg.substring("--cache=".length())));
+            } else if (arg.equals("--profile")) {
+                profileOutput = Paths.get("lox.folded");
+            } else if (arg.startsWith("--profile=")) {
+                profileOutput = Paths.get(arg.substring("--profile=".length()));
+            } else if (arg.equals("--stats")) {
+                Stats.enable();
+            } else if (arg.equals("--stream")) {
+                stream = true;
+            } else if (arg.equals("-O0")) {
+                optimize = false;
+            } else if (arg.equals("-O1")) {
+                optimize = true;
+            } else if (arg.startsWith("-") || script != null) {
+                usage();
+            } else {
+                script = arg;
+            }
+        }
+
+        JitCompiler jit = null;
+        if (engine == Context.Engine.JIT) {
+            jit = jitSync ? new JitCompiler(jitThreshold, jitDump, Runnable::run, JitCompiler.systemJavac())
+                    : new JitCompiler(jitThreshold, jitDump);
+        }
+        context = new Context(engine, jit);
+        if (profileOutput != null) {
+            profiler = new Profiler();
+            context.setProfiler(profiler);
+        }
+
+        if (script != null){
+            runFile(script);
         }else{
             runPrompt();
         }
     }
 
+    private static void usage() {
+        System.out.println("Usage: jlox [--engine=tree|jit|closure|vm] [--jit-threshold=calls] [--jit-dump=dir] [--jit-sync] [-O0|-O1] [--stream] [--cache=dir] [--profile[=file]] [--stats] [script]");
+        System.exit(64);
+    }
+
     /* Names of these next two methods should be self explanatory.
     runFile reads source code from file, runPrompt gives you a REPL */
 
     private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        Path source = Paths.get(path);
+        script = path;
+        if (profiler != null) {
+            profiler.start();
+        }
+        CompileErrors errors = new CompileErrors(System.err);
+        if (stream) {
+            runStreaming(Scanner.open(source, errors), errors);
+        } else if (cache != null) {
+            runCached(source, errors);
+        } else {
+            run(Scanner.open(source, errors), errors);
+        }
+        if (profiler != null) {
+            profiler.stop();
+            profiler.writeCollapsed(profileOutput);
+            profiler.printTable(System.err);
+        }
+        if (Stats.enabled) {
+            Stats.print(System.err);
+        }
         if(hadError){
             System.exit(65);
         }
@@ -44,41 +145,124 @@ public class Lox {
 
         while(true){
             System.out.print("> ");
-            run(reader.readLine());
+            CompileErrors errors = new CompileErrors(System.err);
+            run(new Scanner(reader.readLine(), errors), errors);
             hadError = false;
         }
 
     }
 
-    private static void run(String source){
-        /* NB: This is a custom scanner, _not_ java.util's Scanner */
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
+    /* NB: This is a custom scanner, _not_ java.util's Scanner */
+    private static void run(Scanner scanner, CompileErrors errors){
+        Program program = compile(scanner, errors);
+        if (program != null) {
+            execute(program);
+        } else {
+            hadError = true;
+        }
+    }
+
+    /* Run the cached program if it is up to date, otherwise compile it as usual and cache that */
+    private static void runCached(Path source, CompileErrors errors) throws IOException {
+        Program program = cache.load(source, optimize);
+        if (program == null) {
+            program = compile(Scanner.open(source, errors), errors);
+            if (program == null) {
+                hadError = true;
+                return;
+            }
+
+            try {
+                cache.save(source, optimize, program);
+            } catch (IOException e) {
+                /* The program can still run, it just has to be compiled again next time */
+                System.err.println("Could not write cache: " + e);
+            }
+        }
+        execute(program);
+    }
+
+    /* Parse, resolve and optimize a program, reporting to errors. Returns null if it has compile errors. */
+    static Program compile(Scanner scanner, CompileErrors errors) {
+        Parser parser = new Parser(scanner, errors);
+        long start = Stats.start();
+        Events.CompilePhase phase = Events.beginPhase();
         List<Stmt> statements = parser.parse();
+        Stats.finish(Stats.parseNanos, start);
+        Events.endPhase(phase, "parse", script);
+
+        if (errors.hasErrors()){
+            return null;
+        }
 
-        if (hadError){
-            return;
+        return resolve(statements, errors);
+    }
+
+    /*
+     Run a file the way the REPL runs lines, so memory use depends on what the program keeps alive rather
+     than on the size of the file. Globals are looked up when they are used, so this doesn't change what a
+     correct program does, but declarations before a compile error have already run when it is reported.
+     */
+    private static void runStreaming(Scanner scanner, CompileErrors errors) {
+        Parser parser = new Parser(scanner, errors);
+        while (parser.hasNext() && !hadRuntimeError) {
+            long start = Stats.start();
+            Events.CompilePhase phase = Events.beginPhase();
+            Stmt statement = parser.parseDeclaration();
+            Stats.finish(Stats.parseNanos, start);
+            Events.endPhase(phase, "parse", script);
+            /* After an error, keep parsing to report any others but stop running */
+            if (!errors.hasErrors()) {
+                List<Stmt> statements = new ArrayList<>();
+                statements.add(statement);
+                Program program = resolve(statements, errors);
+                if (program != null) {
+                    execute(program);
+                }
+            }
         }
+        if (errors.hasErrors()) {
+            hadError = true;
+        }
+    }
 
-        Resolver resolver = new Resolver(interpreter);
+    /* Resolve and optimize parsed statements into a program. Returns null if they have compile errors. */
+    private static Program resolve(List<Stmt> statements, CompileErrors errors) {
+        long start = Stats.start();
+        Events.CompilePhase phase = Events.beginPhase();
+        Resolver resolver = new Resolver(errors);
         resolver.resolve(statements);
-        if (hadError) {
-            return;
+        Stats.finish(Stats.resolveNanos, start);
+        Events.endPhase(phase, "resolve", script);
+        if (errors.hasErrors()) {
+            return null;
         }
 
-        interpreter.interpret(statements);
+        if (optimize) {
+            start = Stats.start();
+            phase = Events.beginPhase();
+            new Optimizer().optimize(statements);
+            Stats.finish(Stats.optimizeNanos, start);
+            Events.endPhase(phase, "optimize", script);
+        }
+        return new Program(statements, resolver.sites());
     }
 
-    protected static void error(int line, String msg){
-        report(line, "", msg);
+    /* Compile statements for the VM, reporting to errors. Returns null if the bytecode compiler found errors. */
+    static VmFunction compileBytecode(List<Stmt> statements, CompileErrors errors) {
+        VmFunction script = new BytecodeCompiler(errors).compile(statements);
+        return errors.hasErrors() ? null : script;
     }
 
-    protected static void error(Token tok, String message){
-        if (tok.type == TokenType.EOF){
-            report(tok.line, "at end", message);
-        }else {
-            report(tok.line, " at '" + tok.lexeme + "'", message);
+    /* A program the VM can't compile stops with the errors the bytecode compiler found instead */
+    private static void execute(Program program) {
+        if (!context.run(program)) {
+            if (context.error() != null) {
+                runtimeError(context.error());
+            } else {
+                context.compileErrors().forEach(System.err::println);
+                hadError = true;
+            }
         }
     }
 
@@ -86,9 +270,4 @@ public class Lox {
         System.err.println(error.getMessage() + "\n[line " + error.token.line +"]");
         hadRuntimeError = true;
     }
-
-    private static void report(int line, String where, String message){
-        System.err.printf("[line %s] Error %s: %s\n", line, where, message);
-        hadError = true;
-    }
 }
@@ -1,19 +1,33 @@
 package craftinginterpreters.lox;
 
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class LoxClass implements LoxCallable{
     final String name;
     final LoxClass superclass;
-    Map<String, LoxFunction> methods;
+    /* Every method an instance responds to, inherited ones included, so lookup doesn't depend on depth */
+    final Map<Symbol, LoxFunction> methods;
+    private final LoxFunction initializer;
+    final Shape rootShape = new Shape(this);
+    /* The most fields any instance has needed, used to size new instances' field arrays */
+    int fieldCount = 0;
 
 
-    public LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
+    public LoxClass(String name, LoxClass superclass, Map<Symbol, LoxFunction> methods) {
         this.name = name;
-        this.methods = methods;
         this.superclass = superclass;
+
+        Map<Symbol, LoxFunction> table = new HashMap<>();
+        if (superclass != null) {
+            table.putAll(superclass.methods);
+        }
+        table.putAll(methods);
+        this.methods = Collections.unmodifiableMap(table);
+        this.initializer = table.get(Symbol.INIT);
     }
 
     @Override
@@ -21,33 +35,89 @@ public class LoxClass implements LoxCallable{
         return name;
     }
 
+    /* Callers have checked the argument count against arity(), so without an init there are none */
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        Events.Instantiation event = Events.beginInstantiation();
         LoxInstance instance = new LoxInstance(this);
 
         /* Look for a constructor */
-        LoxFunction initializer = methods.get("init");
         if (initializer != null) {
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.invoke(interpreter, instance, arguments);
         }
+        Events.endInstantiation(event, name);
         return instance;
     }
 
-    public LoxFunction findMethod(LoxInstance instance, String name) {
-        if (methods.containsKey(name)) {
-            return  methods.get(name).bind(instance);
+    @Override
+    public Object call0(Interpreter interpreter) {
+        Events.Instantiation event = Events.beginInstantiation();
+        LoxInstance instance = new LoxInstance(this);
+        if (initializer != null) {
+            initializer.invoke0(interpreter, instance);
         }
+        Events.endInstantiation(event, name);
+        return instance;
+    }
 
-        if (superclass != null) {
-            return superclass.findMethod(instance, name);
+    @Override
+    public Object call1(Interpreter interpreter, Object a0) {
+        Events.Instantiation event = Events.beginInstantiation();
+        LoxInstance instance = new LoxInstance(this);
+        initializer.invoke1(interpreter, instance, a0);
+        Events.endInstantiation(event, name);
+        return instance;
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a0, Object a1) {
+        Events.Instantiation event = Events.beginInstantiation();
+        LoxInstance instance = new LoxInstance(this);
+        initializer.invoke2(interpreter, instance, a0, a1);
+        Events.endInstantiation(event, name);
+        return instance;
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a0, Object a1, Object a2) {
+        Events.Instantiation event = Events.beginInstantiation();
+        LoxInstance instance = new LoxInstance(this);
+        initializer.invoke3(interpreter, instance, a0, a1, a2);
+        Events.endInstantiation(event, name);
+        return instance;
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a0, Object a1, Object a2, Object a3) {
+        Events.Instantiation event = Events.beginInstantiation();
+        LoxInstance instance = new LoxInstance(this);
+        initializer.invoke4(interpreter, instance, a0, a1, a2, a3);
+        Events.endInstantiation(event, name);
+        return instance;
+    }
+
+    /* Look up a method without binding it */
+    LoxFunction findMethod(Symbol name) {
+        if (Stats.enabled) {
+            Stats.methodLookups.increment();
         }
+        return methods.get(name);
+    }
 
-        return null;
+    /*
+     The targets of a subclass's super.method expressions, in the order the Resolver numbered them. A
+     missing method is left null so the error surfaces only if that expression actually runs.
+     */
+    LoxFunction[] findMethods(List<Token> names) {
+        LoxFunction[] found = new LoxFunction[names.size()];
+        for (int i = 0; i < found.length; i++) {
+            found[i] = methods.get(names.get(i).symbol);
+        }
+        return found;
     }
 
     @Override
     public int arity() {
-        LoxFunction initializer = methods.get("init");
         if (initializer == null) return 0;
         return initializer.arity();
     }
@@ -1,5 +1,6 @@
 package craftinginterpreters.lox;
 
+import java.util.Arrays;
 import java.util.List;
 
 public class LoxFunction implements LoxCallable{
@@ -7,41 +8,347 @@ public class LoxFunction implements LoxCallable{
     private final Stmt.Function declaration;
     private final boolean isInitializer;
 
-    LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+    /* The body as compiled by NodeCompiler, or null when the tree-walker runs this function */
+    private final Node[] body;
+
+    /* The instance a bound method runs on, or null for functions and methods not yet bound */
+    private final LoxInstance receiver;
+
+    /* This closure's JIT compiled code, once the declaration is hot enough to have some */
+    private JitCompiler.Code compiled;
+
+    /* The inline caches of the program the function was declared in, which its property accesses use */
+    private final InlineCache[] caches;
+
+    LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer, InlineCache[] caches) {
+        this(declaration, closure, isInitializer, null, caches);
+    }
+
+    LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer, Node[] body,
+                InlineCache[] caches) {
+        this(declaration, closure, isInitializer, body, caches, null);
+    }
+
+    private LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer, Node[] body,
+                        InlineCache[] caches, LoxInstance receiver) {
         this.declaration = declaration;
         this.closure = closure;
         this.isInitializer = isInitializer;
+        this.body = body;
+        this.caches = caches;
+        this.receiver = receiver;
     }
 
+    /* Only needed when a method escapes as a value; calls on an instance go straight to invoke() */
     LoxFunction bind(LoxInstance instance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new LoxFunction(declaration, environment, false);
+        LoxFunction bound = new LoxFunction(declaration, closure, isInitializer, body, caches, instance);
+        bound.compiled = compiled;
+        return bound;
     }
+
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment env = new Environment(closure);
-        for (int i = 0; i < declaration.parameters.size(); i++) {
-            env.define(declaration.parameters.get(i).lexeme, arguments.get(i));
+        return invoke(interpreter, receiver, arguments);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return invoke0(interpreter, receiver);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a0) {
+        return invoke1(interpreter, receiver, a0);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a0, Object a1) {
+        return invoke2(interpreter, receiver, a0, a1);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a0, Object a1, Object a2) {
+        return invoke3(interpreter, receiver, a0, a1, a2);
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a0, Object a1, Object a2, Object a3) {
+        return invoke4(interpreter, receiver, a0, a1, a2, a3);
+    }
+
+    /*
+     The invoke methods run with receiver as 'this', which for methods is slot 0 of the new frame. Parameters are
+     the first locals the Resolver declares, so they take the slots straight after it.
+     */
+    Object invoke(Interpreter interpreter, LoxInstance receiver, List<Object> arguments) {
+        Events.FunctionCall event = enter(interpreter);
+        InlineCache[] callerCaches = interpreter.caches;
+        interpreter.caches = caches;
+        try {
+            if (isCompiled(interpreter)) {
+                Object result = finish(interpreter, compiled.invoke(interpreter, receiver, arguments));
+                return exit(interpreter, event, callerCaches, result);
+            }
+
+            Environment frame = newFrame(receiver);
+            int first = firstParameter();
+            for (int i = 0; i < arguments.size(); i++) {
+                frame.define(first + i, arguments.get(i));
+            }
+            return exit(interpreter, event, callerCaches, run(interpreter, frame, receiver));
+        } catch (StackOverflowError e) {
+            throw stackOverflow();
+        }
+    }
+
+    Object invoke0(Interpreter interpreter, LoxInstance receiver) {
+        Events.FunctionCall event = enter(interpreter);
+        InlineCache[] callerCaches = interpreter.caches;
+        interpreter.caches = caches;
+        try {
+            if (isCompiled(interpreter)) {
+                Object result = finish(interpreter, compiled.invoke0(interpreter, receiver));
+                return exit(interpreter, event, callerCaches, result);
+            }
+
+            return exit(interpreter, event, callerCaches, run(interpreter, newFrame(receiver), receiver));
+        } catch (StackOverflowError e) {
+            throw stackOverflow();
+        }
+    }
+
+    Object invoke1(Interpreter interpreter, LoxInstance receiver, Object a0) {
+        Events.FunctionCall event = enter(interpreter);
+        InlineCache[] callerCaches = interpreter.caches;
+        interpreter.caches = caches;
+        try {
+            if (isCompiled(interpreter)) {
+                Object result = finish(interpreter, compiled.invoke1(interpreter, receiver, a0));
+                return exit(interpreter, event, callerCaches, result);
+            }
+
+            Environment frame = newFrame(receiver);
+            int first = firstParameter();
+            frame.define(first, a0);
+            return exit(interpreter, event, callerCaches, run(interpreter, frame, receiver));
+        } catch (StackOverflowError e) {
+            throw stackOverflow();
         }
+    }
 
+    Object invoke2(Interpreter interpreter, LoxInstance receiver, Object a0, Object a1) {
+        Events.FunctionCall event = enter(interpreter);
+        InlineCache[] callerCaches = interpreter.caches;
+        interpreter.caches = caches;
         try {
-            interpreter.executeBlock(declaration.body, env);
-        } catch (Return ret) {
+            if (isCompiled(interpreter)) {
+                Object result = finish(interpreter, compiled.invoke2(interpreter, receiver, a0, a1));
+                return exit(interpreter, event, callerCaches, result);
+            }
+
+            Environment frame = newFrame(receiver);
+            int first = firstParameter();
+            frame.define(first, a0);
+            frame.define(first + 1, a1);
+            return exit(interpreter, event, callerCaches, run(interpreter, frame, receiver));
+        } catch (StackOverflowError e) {
+            throw stackOverflow();
+        }
+    }
 
-            if (isInitializer) {
-                return closure.getAt(0, "this");
+    Object invoke3(Interpreter interpreter, LoxInstance receiver, Object a0, Object a1, Object a2) {
+        Events.FunctionCall event = enter(interpreter);
+        InlineCache[] callerCaches = interpreter.caches;
+        interpreter.caches = caches;
+        try {
+            if (isCompiled(interpreter)) {
+                Object result = finish(interpreter, compiled.invoke3(interpreter, receiver, a0, a1, a2));
+                return exit(interpreter, event, callerCaches, result);
             }
 
-            return ret.value;
+            Environment frame = newFrame(receiver);
+            int first = firstParameter();
+            frame.define(first, a0);
+            frame.define(first + 1, a1);
+            frame.define(first + 2, a2);
+            return exit(interpreter, event, callerCaches, run(interpreter, frame, receiver));
+        } catch (StackOverflowError e) {
+            throw stackOverflow();
         }
+    }
 
+    Object invoke4(Interpreter interpreter, LoxInstance receiver, Object a0, Object a1, Object a2, Object a3) {
+        Events.FunctionCall event = enter(interpreter);
+        InlineCache[] callerCaches = interpreter.caches;
+        interpreter.caches = caches;
+        try {
+            if (isCompiled(interpreter)) {
+                Object result = finish(interpreter, compiled.invoke4(interpreter, receiver, a0, a1, a2, a3));
+                return exit(interpreter, event, callerCaches, result);
+            }
+
+            Environment frame = newFrame(receiver);
+            int first = firstParameter();
+            frame.define(first, a0);
+            frame.define(first + 1, a1);
+            frame.define(first + 2, a2);
+            frame.define(first + 3, a3);
+            return exit(interpreter, event, callerCaches, run(interpreter, frame, receiver));
+        } catch (StackOverflowError e) {
+            throw stackOverflow();
+        }
+    }
+
+    private boolean isCompiled(Interpreter interpreter) {
+        if (compiled == null && body == null && interpreter.jit != null) {
+            compiled = interpreter.jit.compile(declaration, closure, isInitializer);
+        }
+        return compiled != null;
+    }
+
+    /*
+     Count the call, keep the profiler's shadow stack in step with the calls when there is a profiler, and
+     time the call for JFR when a recording wants that. Returns the JFR event, or null. Around the call the
+     invoke methods also switch to the caches of this function's program, and exit() switches back; nothing
+     needs to on the way out of a runtime error, since that ends the run and the next one sets them anew.
+     */
+    private Events.FunctionCall enter(Interpreter interpreter) {
+        if (Stats.enabled) {
+            Stats.calls.increment();
+        }
+        if (interpreter.profiler != null) {
+            interpreter.profiler.enter(declaration);
+        }
+        return Events.beginCall();
+    }
+
+    private Object exit(Interpreter interpreter, Events.FunctionCall event, InlineCache[] callerCaches,
+                        Object result) {
+        interpreter.caches = callerCaches;
+        if (interpreter.profiler != null) {
+            interpreter.profiler.exit();
+        }
+        Events.endCall(event, declaration.name.lexeme, declaration.name.line);
+        return result;
+    }
+
+    private int firstParameter() {
+        return declaration.isMethod ? 1 : 0;
+    }
+
+    private Environment newFrame(LoxInstance receiver) {
+        Environment frame = new Environment(closure, declaration.frameSize);
+        if (declaration.isMethod) {
+            frame.define(0, receiver);
+        }
+        return frame;
+    }
+
+    /*
+     Runs the body, then any call it made in tail position, and so on, all in this one Java frame. A function
+     tail calling itself reuses its frame too, unless it made closures that might have captured the frame.
+     */
+    private Object run(Interpreter interpreter, Environment frame, LoxInstance receiver) {
+        Completion completion = execute(interpreter, frame);
+        if (completion != Completion.TAIL_CALL) {
+            return result(interpreter, completion, receiver);
+        }
+        return tailCalls(interpreter, frame);
+    }
+
+    /* JIT compiled code asks for a call in tail position the same way, by returning TAIL_CALL */
+    private Object finish(Interpreter interpreter, Object result) {
+        if (result == Completion.TAIL_CALL) {
+            return tailCalls(interpreter, null);
+        }
+        return result;
+    }
+
+    /*
+     Make the call in tail position that the interpreter's tail fields describe, then the one that makes, and
+     so on until one returns. frame is this function's, or null when it was compiled and has none to reuse.
+     */
+    private Object tailCalls(Interpreter interpreter, Environment frame) {
+        LoxFunction function = this;
+        while (true) {
+            LoxFunction next = interpreter.tailFunction;
+            LoxInstance receiver = interpreter.tailReceiver != null ? interpreter.tailReceiver : next.receiver;
+            Object[] arguments = interpreter.tailArguments;
+            interpreter.tailFunction = null;
+            interpreter.tailReceiver = null;
+            interpreter.tailArguments = null;
+
+            if (interpreter.profiler != null) {
+                interpreter.profiler.replace(next.declaration);
+            }
+            interpreter.caches = next.caches;
+            if (next.isCompiled(interpreter)) {
+                Object result = next.compiled.invoke(interpreter, receiver, Arrays.asList(arguments));
+                if (result != Completion.TAIL_CALL) {
+                    return result;
+                }
+                function = next;
+                frame = null;
+                continue;
+            }
+
+            boolean reuse = frame != null && next.declaration == function.declaration
+                    && next.closure == function.closure && !next.declaration.hasClosures;
+            if (reuse) {
+                if (next.declaration.isMethod) {
+                    frame.define(0, receiver);
+                }
+            } else {
+                frame = next.newFrame(receiver);
+            }
+            int first = next.firstParameter();
+            for (int i = 0; i < arguments.length; i++) {
+                frame.define(first + i, arguments[i]);
+            }
+
+            Completion completion = next.execute(interpreter, frame);
+            if (completion != Completion.TAIL_CALL) {
+                return next.result(interpreter, completion, receiver);
+            }
+            function = next;
+        }
+    }
+
+    /*
+     Lox code recursing too deeply for the Java stack is a runtime error, like overflowing the VM's frames.
+     The innermost call catches it; if there isn't room left to make the error there, the next one out will.
+     */
+    private RuntimeError stackOverflow() {
+        return new RuntimeError(declaration.name, "Stack overflow.");
+    }
+
+    private Completion execute(Interpreter interpreter, Environment frame) {
+        if (body == null) {
+            return interpreter.executeBlock(declaration.body, frame);
+        }
+
+        for (Node node : body) {
+            Object completion = node.execute(interpreter, frame);
+            if (completion != null) {
+                return (Completion)completion;
+            }
+        }
+        return Completion.NORMAL;
+    }
+
+    private Object result(Interpreter interpreter, Completion completion, LoxInstance receiver) {
         /*
          An object's constructor returns that object - calling the constructor after the object has been created
          yields the same instance of the object
          */
         if (isInitializer) {
-            return closure.getAt(0, "this");
+            return receiver;
+        }
+
+        if (completion == Completion.RETURN) {
+            Object value = interpreter.returnValue;
+            interpreter.returnValue = null;
+            return value;
         }
 
         return null;
@@ -54,6 +361,6 @@ public class LoxFunction implements LoxCallable{
 
     @Override
     public String toString() {
-        return String.format("<fn %d>", declaration.name.lexeme);
+        return String.format("<fn %s>", declaration.name.lexeme);
     }
 }
@@ -1,35 +1,55 @@
 package craftinginterpreters.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class LoxInstance {
-    private LoxClass classs;
-    private final Map<String, Object> fields = new HashMap<>();
+    private static final Object[] NO_FIELDS = new Object[0];
+
+    Shape shape;
+    private Object[] fields;
 
     public LoxInstance(LoxClass classs) {
-        this.classs = classs;
+        this.shape = classs.rootShape;
+        /* Size for the fields earlier instances ended up with, so a typical init never regrows this */
+        this.fields = classs.fieldCount == 0 ? NO_FIELDS : new Object[classs.fieldCount];
     }
 
     @Override
     public String toString() {
-        return String.format("%s instance");
+        return String.format("%s instance", shape.classs.name);
     }
 
     public Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
-        }
+        return InlineCache.getUncached(this, name);
+    }
 
-        LoxFunction method = classs.findMethod(this, name.lexeme);
-        if (method != null) return method;
+    public void set(Token name, Object value) {
+        InlineCache.setUncached(this, name, value);
+    }
 
-        throw new RuntimeError(name, String.format("Undefined property %s.", name.lexeme));
+    /* Read the field at index, or bind method when the shape has no such field */
+    Object read(Token name, int index, LoxFunction method) {
+        if (Stats.enabled) {
+            (index >= 0 ? Stats.fieldReads : Stats.methodReads).increment();
+        }
+        if (index >= 0) return fields[index];
+        if (method != null) return method.bind(this);
 
+        throw new RuntimeError(name, String.format("Undefined property %s.", name.lexeme));
     }
 
-    public void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+    /* Write the field at index, moving to the next shape first if this adds the field */
+    void write(int index, Shape next, Object value) {
+        if (next != shape) {
+            if (index >= fields.length) {
+                LoxClass classs = shape.classs;
+                if (classs.fieldCount < next.size()) {
+                    classs.fieldCount = next.size();
+                }
+                fields = Arrays.copyOf(fields, classs.fieldCount);
+            }
+            shape = next;
+        }
+        fields[index] = value;
     }
-
 }
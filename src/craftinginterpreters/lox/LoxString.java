@@ -0,0 +1,91 @@
+package craftinginterpreters.lox;
+
+/*
+ A string built by concatenation at runtime. Its characters are the first 'length' characters of a
+ StringBuilder that may be shared with the strings it was built from: concatenating onto the string that
+ ends at the builder's current end appends to the builder in place instead of copying, so a loop doing
+ 's = s + line' takes linear time. Characters before a string's length are never changed, so every string
+ sharing the builder still sees the same contents.
+
+ Short results are plain Java Strings, which is what literals are as well. Anything that looks at the
+ contents as a whole, like print or equality, goes through toString(), which flattens once and keeps it.
+ */
+final class LoxString implements CharSequence {
+    /* Below this many characters a concatenation just produces a String */
+    private static final int MIN_LENGTH = 64;
+
+    private final StringBuilder buffer;
+    private final int length;
+    private String flat;
+
+    private LoxString(StringBuilder buffer, int length) {
+        this.buffer = buffer;
+        this.length = length;
+    }
+
+    /* left + right, where at least one of them is a string */
+    static Object concat(Object left, Object right) {
+        if (Stats.enabled) {
+            Stats.concatenations.increment();
+        }
+        if (left instanceof LoxString) {
+            LoxString prefix = (LoxString)left;
+            StringBuilder buffer = prefix.buffer;
+            if (prefix.length == buffer.length()) {
+                append(buffer, right);
+                return new LoxString(buffer, buffer.length());
+            }
+        }
+
+        String l = left.toString();
+        String r = right.toString();
+        int length = l.length() + r.length();
+        if (length < MIN_LENGTH) {
+            return l + r;
+        }
+
+        /* Leave room to keep appending */
+        StringBuilder buffer = new StringBuilder(length * 2);
+        buffer.append(l).append(r);
+        return new LoxString(buffer, length);
+    }
+
+    private static void append(StringBuilder buffer, Object value) {
+        if (value instanceof LoxString && ((LoxString)value).buffer != buffer) {
+            LoxString string = (LoxString)value;
+            buffer.append(string.buffer, 0, string.length);
+        } else {
+            buffer.append(value.toString());
+        }
+    }
+
+    static boolean equal(CharSequence left, CharSequence right) {
+        return left.length() == right.length() && left.toString().equals(right.toString());
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index >= length) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return buffer.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) {
+            flat = buffer.substring(0, length);
+        }
+        return flat;
+    }
+}
@@ -0,0 +1,12 @@
+package craftinginterpreters.lox;
+
+/*
+ A piece of program compiled by NodeCompiler. Everything that can be decided ahead of time (which operator,
+ which slot, how many arguments) is baked into the node, so executing it is a single virtual call.
+ Statements return null, or the Completion of a return statement, as Interpreter's statements do. Nodes
+ hold nothing of the context running them, which passes itself in as interpreter, so they are compiled
+ once per Program.
+ */
+interface Node {
+    Object execute(Interpreter interpreter, Environment frame);
+}
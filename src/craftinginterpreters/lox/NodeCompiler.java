@@ -0,0 +1,802 @@
+package craftinginterpreters.lox;
+/* Compile a resolved AST into a tree of pre-specialized Nodes. */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class NodeCompiler implements Expr.Visitor<Node>, Stmt.Visitor<Node> {
+    Node[] compile(List<Stmt> statements) {
+        Node[] nodes = new Node[statements.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = compile(statements.get(i));
+        }
+        return nodes;
+    }
+
+    /* Run the top level of a program in interpreter's globals, so the REPL keeps its state whichever engine runs it */
+    static void run(Interpreter interpreter, Program program) {
+        interpreter.enter(program);
+        for (Node node : program.nodes()) {
+            node.execute(interpreter, interpreter.globals);
+        }
+    }
+
+    private Node compile(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private Node compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    /* Bind a declaration in its resolved slot, or as a global when it has none */
+    private Node define(int slot, Token name, Node value) {
+        if (slot >= 0) {
+            return (interpreter, frame) -> {
+                frame.define(slot, value.execute(interpreter, frame));
+                return null;
+            };
+        }
+        Symbol symbol = name.symbol;
+        return (interpreter, frame) -> {
+            interpreter.globals.define(symbol, value.execute(interpreter, frame));
+            return null;
+        };
+    }
+
+    private static void checkNumberOperand(Token operator, Object operand) {
+        if (!(operand instanceof Double)) {
+            throw new RuntimeError(operator, "Operand must be a number.");
+        }
+    }
+
+    private static void checkNumberOperands(Token operator, Object left, Object right) {
+        if (!(left instanceof Double && right instanceof Double)) {
+            throw new RuntimeError(operator, "Operands must be numbers.");
+        }
+    }
+
+    @Override
+    public Node visitClassStmt(Stmt.Class stmt) {
+        Node superclassNode = stmt.superclass == null ? null : compile(stmt.superclass);
+        Token superclassName = stmt.superclass == null ? null : stmt.superclass.name;
+
+        /* Compile every method body once; each class definition just wraps them in new closures */
+        int count = stmt.methods.size();
+        Stmt.Function[] declarations = stmt.methods.toArray(new Stmt.Function[count]);
+        Node[][] bodies = new Node[count][];
+        boolean[] isInitializer = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            bodies[i] = compile(declarations[i].body);
+            isInitializer[i] = declarations[i].name.symbol == Symbol.INIT;
+        }
+
+        int slot = stmt.slot;
+        String name = stmt.name.lexeme;
+        Symbol symbol = stmt.name.symbol;
+        List<Token> superMethods = stmt.superMethods;
+        return (interpreter, frame) -> {
+            Object superclass = null;
+            if (superclassNode != null) {
+                superclass = superclassNode.execute(interpreter, frame);
+                if (!(superclass instanceof LoxClass)) {
+                    throw new RuntimeError(superclassName, "Superclass must be a class.");
+                }
+            }
+
+            Environment environment = frame;
+            if (superclass != null) {
+                environment = new Environment(frame, 1);
+                environment.define(0, ((LoxClass)superclass).findMethods(superMethods));
+            }
+
+            Map<Symbol, LoxFunction> methods = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                methods.put(declarations[i].name.symbol,
+                        new LoxFunction(declarations[i], environment, isInitializer[i], bodies[i], interpreter.caches));
+            }
+            LoxClass classs = new LoxClass(name, (LoxClass)superclass, methods);
+
+            if (slot >= 0) {
+                frame.define(slot, classs);
+            } else {
+                interpreter.globals.define(symbol, classs);
+            }
+            return null;
+        };
+    }
+
+    @Override
+    public Node visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) {
+            return (interpreter, frame) -> {
+                interpreter.returnValue = null;
+                return Completion.RETURN;
+            };
+        }
+        Node value = compile(stmt.value);
+        return (interpreter, frame) -> {
+            Object result = value.execute(interpreter, frame);
+            if (result == Completion.TAIL_CALL) {
+                return Completion.TAIL_CALL;
+            }
+            interpreter.returnValue = result;
+            return Completion.RETURN;
+        };
+    }
+
+    @Override
+    public Node visitFunctionStmt(Stmt.Function stmt) {
+        Node[] body = compile(stmt.body);
+        return define(stmt.slot, stmt.name,
+                (interpreter, frame) -> new LoxFunction(stmt, frame, false, body, interpreter.caches));
+    }
+
+    @Override
+    public Node visitWhileStmt(Stmt.While stmt) {
+        Node condition = compile(stmt.condition);
+        Node body = compile(stmt.body);
+        return (interpreter, frame) -> {
+            while (Interpreter.isTruthy(condition.execute(interpreter, frame))) {
+                Object completion = body.execute(interpreter, frame);
+                if (completion != null) {
+                    return completion;
+                }
+            }
+            return null;
+        };
+    }
+
+    @Override
+    public Node visitIfStmt(Stmt.If stmt) {
+        Node condition = compile(stmt.condition);
+        Node thenBranch = compile(stmt.thenBranch);
+        if (stmt.elseBranch == null) {
+            return (interpreter, frame) -> {
+                if (Interpreter.isTruthy(condition.execute(interpreter, frame))) {
+                    return thenBranch.execute(interpreter, frame);
+                }
+                return null;
+            };
+        }
+
+        Node elseBranch = compile(stmt.elseBranch);
+        return (interpreter, frame) -> {
+            if (Interpreter.isTruthy(condition.execute(interpreter, frame))) {
+                return thenBranch.execute(interpreter, frame);
+            }
+            return elseBranch.execute(interpreter, frame);
+        };
+    }
+
+    @Override
+    public Node visitBlockStmt(Stmt.Block stmt) {
+        Node[] statements = compile(stmt.statements);
+        int size = stmt.frameSize;
+        return (interpreter, frame) -> {
+            Environment environment = new Environment(frame, size);
+            for (Node statement : statements) {
+                Object completion = statement.execute(interpreter, environment);
+                if (completion != null) {
+                    return completion;
+                }
+            }
+            return null;
+        };
+    }
+
+    @Override
+    public Node visitExpressionStmt(Stmt.Expression stmt) {
+        Node expression = compile(stmt.expression);
+        return (interpreter, frame) -> {
+            expression.execute(interpreter, frame);
+            return null;
+        };
+    }
+
+    @Override
+    public Node visitPrintStmt(Stmt.Print stmt) {
+        Node expression = compile(stmt.expression);
+        return (interpreter, frame) -> {
+            System.out.println(Interpreter.stringify(expression.execute(interpreter, frame)));
+            return null;
+        };
+    }
+
+    @Override
+    public Node visitVarStmt(Stmt.Var stmt) {
+        /* Lox variables default to null */
+        Node initializer = stmt.initializer == null ? (interpreter, frame) -> null : compile(stmt.initializer);
+        return define(stmt.slot, stmt.name, initializer);
+    }
+
+    @Override
+    public Node visitSuperExpr(Expr.Super expr) {
+        int distance = expr.depth;
+        int index = expr.index;
+        Token method = expr.method;
+        return (interpreter, frame) ->
+                superMethod(frame, distance, index, method).bind((LoxInstance)frame.getAt(distance - 1, 0));
+    }
+
+    /* 'super' holds the targets resolved when the class was defined; 'this' is slot 0 of the method's frame */
+    private static LoxFunction superMethod(Environment frame, int distance, int index, Token method) {
+        LoxFunction target = ((LoxFunction[])frame.getAt(distance, 0))[index];
+        if (target == null) {
+            throw new RuntimeError(method, String.format("Undefined property '%s'.", method.lexeme));
+        }
+        return target;
+    }
+
+    @Override
+    public Node visitThisExpr(Expr.This expr) {
+        int depth = expr.depth;
+        return (interpreter, frame) -> frame.getAt(depth, 0);
+    }
+
+    @Override
+    public Node visitSetExpr(Expr.Set expr) {
+        Node object = compile(expr.object);
+        Node value = compile(expr.value);
+        Token name = expr.name;
+        int site = expr.site;
+        return (interpreter, frame) -> {
+            InlineCache cache = interpreter.cache(site, name.symbol);
+            Object lvalue = object.execute(interpreter, frame);
+            if (!(lvalue instanceof LoxInstance)) {
+                throw new RuntimeError(name, "Only instances have fields.");
+            }
+
+            Object rvalue = value.execute(interpreter, frame);
+            cache.set((LoxInstance)lvalue, rvalue);
+            return rvalue;
+        };
+    }
+
+    @Override
+    public Node visitGetExpr(Expr.Get expr) {
+        Node object = compile(expr.object);
+        Token name = expr.name;
+        int site = expr.site;
+        return (interpreter, frame) -> {
+            InlineCache cache = interpreter.cache(site, name.symbol);
+            Object instance = object.execute(interpreter, frame);
+            if (instance instanceof LoxInstance) {
+                return cache.get((LoxInstance)instance, name);
+            }
+
+            throw new RuntimeError(name, "Only object instances have properties.");
+        };
+    }
+
+    private static LoxCallable checkCall(Token paren, Object callee, int count) {
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+
+        LoxCallable callable = (LoxCallable)callee;
+        if (count != callable.arity()) {
+            throw new RuntimeError(paren, String.format("Expected %d arguments but got %d.", callable.arity(), count));
+        }
+        return callable;
+    }
+
+    /* Calls with up to four arguments get a node that keeps them in locals and uses the fixed-arity entry point */
+    @Override
+    public Node visitCallExpr(Expr.Call expr) {
+        if (expr.isTailCall) {
+            return compileTailCall(expr);
+        }
+        if (expr.callee instanceof Expr.Get) {
+            return compileInvoke(expr, (Expr.Get)expr.callee);
+        }
+        if (expr.callee instanceof Expr.Super) {
+            return compileSuperInvoke(expr, (Expr.Super)expr.callee);
+        }
+
+        Node callee = compile(expr.callee);
+        Node[] arguments = compileArguments(expr.arguments);
+        Token paren = expr.paren;
+
+        switch (arguments.length) {
+            case 0:
+                return (interpreter, frame) ->
+                        checkCall(paren, callee.execute(interpreter, frame), 0).call0(interpreter);
+            case 1: {
+                Node arg0 = arguments[0];
+                return (interpreter, frame) -> {
+                    Object function = callee.execute(interpreter, frame);
+                    Object a0 = arg0.execute(interpreter, frame);
+                    return checkCall(paren, function, 1).call1(interpreter, a0);
+                };
+            }
+            case 2: {
+                Node arg0 = arguments[0];
+                Node arg1 = arguments[1];
+                return (interpreter, frame) -> {
+                    Object function = callee.execute(interpreter, frame);
+                    Object a0 = arg0.execute(interpreter, frame);
+                    Object a1 = arg1.execute(interpreter, frame);
+                    return checkCall(paren, function, 2).call2(interpreter, a0, a1);
+                };
+            }
+            case 3: {
+                Node arg0 = arguments[0];
+                Node arg1 = arguments[1];
+                Node arg2 = arguments[2];
+                return (interpreter, frame) -> {
+                    Object function = callee.execute(interpreter, frame);
+                    Object a0 = arg0.execute(interpreter, frame);
+                    Object a1 = arg1.execute(interpreter, frame);
+                    Object a2 = arg2.execute(interpreter, frame);
+                    return checkCall(paren, function, 3).call3(interpreter, a0, a1, a2);
+                };
+            }
+            case 4: {
+                Node arg0 = arguments[0];
+                Node arg1 = arguments[1];
+                Node arg2 = arguments[2];
+                Node arg3 = arguments[3];
+                return (interpreter, frame) -> {
+                    Object function = callee.execute(interpreter, frame);
+                    Object a0 = arg0.execute(interpreter, frame);
+                    Object a1 = arg1.execute(interpreter, frame);
+                    Object a2 = arg2.execute(interpreter, frame);
+                    Object a3 = arg3.execute(interpreter, frame);
+                    return checkCall(paren, function, 4).call4(interpreter, a0, a1, a2, a3);
+                };
+            }
+            default:
+                return (interpreter, frame) -> {
+                    Object function = callee.execute(interpreter, frame);
+                    List<Object> args = execute(interpreter, arguments, frame);
+                    return checkCall(paren, function, args.size()).call(interpreter, args);
+                };
+        }
+    }
+
+    /* As Interpreter.tailCall(), leave a call to a LoxFunction in tail position for LoxFunction.run() to make */
+    private Node compileTailCall(Expr.Call expr) {
+        Node[] arguments = compileArguments(expr.arguments);
+        Token paren = expr.paren;
+
+        if (expr.callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get)expr.callee;
+            Node object = compile(get.object);
+            Token name = get.name;
+            int site = get.site;
+            return (interpreter, frame) -> {
+                InlineCache cache = interpreter.cache(site, name.symbol);
+                LoxInstance instance = receiver(name, object.execute(interpreter, frame));
+                LoxFunction method = cache.findMethod(instance);
+                if (method != null) {
+                    return tailCall(interpreter, paren, method, instance, arguments, frame);
+                }
+                return tailCall(interpreter, paren, cache.get(instance, name), arguments, frame);
+            };
+        }
+
+        if (expr.callee instanceof Expr.Super) {
+            Expr.Super superExpr = (Expr.Super)expr.callee;
+            int distance = superExpr.depth;
+            int index = superExpr.index;
+            Token method = superExpr.method;
+            return (interpreter, frame) -> {
+                LoxFunction target = superMethod(frame, distance, index, method);
+                LoxInstance instance = (LoxInstance)frame.getAt(distance - 1, 0);
+                return tailCall(interpreter, paren, target, instance, arguments, frame);
+            };
+        }
+
+        Node callee = compile(expr.callee);
+        return (interpreter, frame) ->
+                tailCall(interpreter, paren, callee.execute(interpreter, frame), arguments, frame);
+    }
+
+    private static Object tailCall(Interpreter interpreter, Token paren, Object callee, Node[] arguments,
+                                   Environment frame) {
+        if (callee instanceof LoxFunction) {
+            return tailCall(interpreter, paren, (LoxFunction)callee, null, arguments, frame);
+        }
+
+        List<Object> args = execute(interpreter, arguments, frame);
+        return checkCall(paren, callee, args.size()).call(interpreter, args);
+    }
+
+    private static Object tailCall(Interpreter interpreter, Token paren, LoxFunction function,
+                                   LoxInstance receiver, Node[] arguments, Environment frame) {
+        Object[] args = new Object[arguments.length];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = arguments[i].execute(interpreter, frame);
+        }
+        checkCall(paren, function, args.length);
+
+        interpreter.tailFunction = function;
+        interpreter.tailReceiver = receiver;
+        interpreter.tailArguments = args;
+        return Completion.TAIL_CALL;
+    }
+
+    private Node[] compileArguments(List<Expr> arguments) {
+        Node[] nodes = new Node[arguments.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = compile(arguments.get(i));
+        }
+        return nodes;
+    }
+
+    private static List<Object> execute(Interpreter interpreter, Node[] arguments, Environment frame) {
+        List<Object> args = new ArrayList<>(arguments.length);
+        for (Node argument : arguments) {
+            args.add(argument.execute(interpreter, frame));
+        }
+        return args;
+    }
+
+    private static LoxInstance receiver(Token name, Object object) {
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(name, "Only object instances have properties.");
+        }
+        return (LoxInstance)object;
+    }
+
+    /*
+     Run a method directly on its receiver instead of binding it first. When the property turns out to be a
+     field its value is read before the arguments run and called like any other callee.
+     */
+    private Node compileInvoke(Expr.Call expr, Expr.Get get) {
+        Node object = compile(get.object);
+        Node[] arguments = compileArguments(expr.arguments);
+        Token paren = expr.paren;
+        Token name = get.name;
+        int site = get.site;
+
+        switch (arguments.length) {
+            case 0:
+                return (interpreter, frame) -> {
+                    InlineCache cache = interpreter.cache(site, name.symbol);
+                    LoxInstance instance = receiver(name, object.execute(interpreter, frame));
+                    LoxFunction method = cache.findMethod(instance);
+                    if (method == null) {
+                        return checkCall(paren, cache.get(instance, name), 0).call0(interpreter);
+                    }
+                    checkCall(paren, method, 0);
+                    return method.invoke0(interpreter, instance);
+                };
+            case 1: {
+                Node arg0 = arguments[0];
+                return (interpreter, frame) -> {
+                    InlineCache cache = interpreter.cache(site, name.symbol);
+                    LoxInstance instance = receiver(name, object.execute(interpreter, frame));
+                    LoxFunction method = cache.findMethod(instance);
+                    Object field = method == null ? cache.get(instance, name) : null;
+                    Object a0 = arg0.execute(interpreter, frame);
+                    if (method == null) {
+                        return checkCall(paren, field, 1).call1(interpreter, a0);
+                    }
+                    checkCall(paren, method, 1);
+                    return method.invoke1(interpreter, instance, a0);
+                };
+            }
+            case 2: {
+                Node arg0 = arguments[0];
+                Node arg1 = arguments[1];
+                return (interpreter, frame) -> {
+                    InlineCache cache = interpreter.cache(site, name.symbol);
+                    LoxInstance instance = receiver(name, object.execute(interpreter, frame));
+                    LoxFunction method = cache.findMethod(instance);
+                    Object field = method == null ? cache.get(instance, name) : null;
+                    Object a0 = arg0.execute(interpreter, frame);
+                    Object a1 = arg1.execute(interpreter, frame);
+                    if (method == null) {
+                        return checkCall(paren, field, 2).call2(interpreter, a0, a1);
+                    }
+                    checkCall(paren, method, 2);
+                    return method.invoke2(interpreter, instance, a0, a1);
+                };
+            }
+            case 3: {
+                Node arg0 = arguments[0];
+                Node arg1 = arguments[1];
+                Node arg2 = arguments[2];
+                return (interpreter, frame) -> {
+                    InlineCache cache = interpreter.cache(site, name.symbol);
+                    LoxInstance instance = receiver(name, object.execute(interpreter, frame));
+                    LoxFunction method = cache.findMethod(instance);
+                    Object field = method == null ? cache.get(instance, name) : null;
+                    Object a0 = arg0.execute(interpreter, frame);
+                    Object a1 = arg1.execute(interpreter, frame);
+                    Object a2 = arg2.execute(interpreter, frame);
+                    if (method == null) {
+                        return checkCall(paren, field, 3).call3(interpreter, a0, a1, a2);
+                    }
+                    checkCall(paren, method, 3);
+                    return method.invoke3(interpreter, instance, a0, a1, a2);
+                };
+            }
+            case 4: {
+                Node arg0 = arguments[0];
+                Node arg1 = arguments[1];
+                Node arg2 = arguments[2];
+                Node arg3 = arguments[3];
+                return (interpreter, frame) -> {
+                    InlineCache cache = interpreter.cache(site, name.symbol);
+                    LoxInstance instance = receiver(name, object.execute(interpreter, frame));
+                    LoxFunction method = cache.findMethod(instance);
+                    Object field = method == null ? cache.get(instance, name) : null;
+                    Object a0 = arg0.execute(interpreter, frame);
+                    Object a1 = arg1.execute(interpreter, frame);
+                    Object a2 = arg2.execute(interpreter, frame);
+                    Object a3 = arg3.execute(interpreter, frame);
+                    if (method == null) {
+                        return checkCall(paren, field, 4).call4(interpreter, a0, a1, a2, a3);
+                    }
+                    checkCall(paren, method, 4);
+                    return method.invoke4(interpreter, instance, a0, a1, a2, a3);
+                };
+            }
+            default:
+                return (interpreter, frame) -> {
+                    InlineCache cache = interpreter.cache(site, name.symbol);
+                    LoxInstance instance = receiver(name, object.execute(interpreter, frame));
+                    LoxFunction method = cache.findMethod(instance);
+                    Object field = method == null ? cache.get(instance, name) : null;
+                    List<Object> args = execute(interpreter, arguments, frame);
+                    if (method == null) {
+                        return checkCall(paren, field, args.size()).call(interpreter, args);
+                    }
+                    checkCall(paren, method, args.size());
+                    return method.invoke(interpreter, instance, args);
+                };
+        }
+    }
+
+    /* As compileInvoke(), run the superclass's method directly on 'this' instead of binding it first */
+    private Node compileSuperInvoke(Expr.Call expr, Expr.Super superExpr) {
+        Node[] arguments = compileArguments(expr.arguments);
+        Token paren = expr.paren;
+        int distance = superExpr.depth;
+        int index = superExpr.index;
+        Token name = superExpr.method;
+
+        switch (arguments.length) {
+            case 0:
+                return (interpreter, frame) -> {
+                    LoxFunction method = superMethod(frame, distance, index, name);
+                    LoxInstance instance = (LoxInstance)frame.getAt(distance - 1, 0);
+                    checkCall(paren, method, 0);
+                    return method.invoke0(interpreter, instance);
+                };
+            case 1: {
+                Node arg0 = arguments[0];
+                return (interpreter, frame) -> {
+                    LoxFunction method = superMethod(frame, distance, index, name);
+                    LoxInstance instance = (LoxInstance)frame.getAt(distance - 1, 0);
+                    Object a0 = arg0.execute(interpreter, frame);
+                    checkCall(paren, method, 1);
+                    return method.invoke1(interpreter, instance, a0);
+                };
+            }
+            case 2: {
+                Node arg0 = arguments[0];
+                Node arg1 = arguments[1];
+                return (interpreter, frame) -> {
+                    LoxFunction method = superMethod(frame, distance, index, name);
+                    LoxInstance instance = (LoxInstance)frame.getAt(distance - 1, 0);
+                    Object a0 = arg0.execute(interpreter, frame);
+                    Object a1 = arg1.execute(interpreter, frame);
+                    checkCall(paren, method, 2);
+                    return method.invoke2(interpreter, instance, a0, a1);
+                };
+            }
+            case 3: {
+                Node arg0 = arguments[0];
+                Node arg1 = arguments[1];
+                Node arg2 = arguments[2];
+                return (interpreter, frame) -> {
+                    LoxFunction method = superMethod(frame, distance, index, name);
+                    LoxInstance instance = (LoxInstance)frame.getAt(distance - 1, 0);
+                    Object a0 = arg0.execute(interpreter, frame);
+                    Object a1 = arg1.execute(interpreter, frame);
+                    Object a2 = arg2.execute(interpreter, frame);
+                    checkCall(paren, method, 3);
+                    return method.invoke3(interpreter, instance, a0, a1, a2);
+                };
+            }
+            case 4: {
+                Node arg0 = arguments[0];
+                Node arg1 = arguments[1];
+                Node arg2 = arguments[2];
+                Node arg3 = arguments[3];
+                return (interpreter, frame) -> {
+                    LoxFunction method = superMethod(frame, distance, index, name);
+                    LoxInstance instance = (LoxInstance)frame.getAt(distance - 1, 0);
+                    Object a0 = arg0.execute(interpreter, frame);
+                    Object a1 = arg1.execute(interpreter, frame);
+                    Object a2 = arg2.execute(interpreter, frame);
+                    Object a3 = arg3.execute(interpreter, frame);
+                    checkCall(paren, method, 4);
+                    return method.invoke4(interpreter, instance, a0, a1, a2, a3);
+                };
+            }
+            default:
+                return (interpreter, frame) -> {
+                    LoxFunction method = superMethod(frame, distance, index, name);
+                    LoxInstance instance = (LoxInstance)frame.getAt(distance - 1, 0);
+                    List<Object> args = execute(interpreter, arguments, frame);
+                    checkCall(paren, method, args.size());
+                    return method.invoke(interpreter, instance, args);
+                };
+        }
+    }
+
+    @Override
+    public Node visitBinaryExpr(Expr.Binary expr) {
+        Node left = compile(expr.left);
+        Node right = compile(expr.right);
+        Token operator = expr.operator;
+
+        switch (operator.type) {
+            case MINUS:
+                return (interpreter, frame) -> {
+                    Object l = left.execute(interpreter, frame);
+                    Object r = right.execute(interpreter, frame);
+                    checkNumberOperands(operator, l, r);
+                    return (double)l - (double)r;
+                };
+            case SLASH:
+                return (interpreter, frame) -> {
+                    Object l = left.execute(interpreter, frame);
+                    Object r = right.execute(interpreter, frame);
+                    checkNumberOperands(operator, l, r);
+                    return (double)l / (double)r;
+                };
+            case STAR:
+                return (interpreter, frame) -> {
+                    Object l = left.execute(interpreter, frame);
+                    Object r = right.execute(interpreter, frame);
+                    checkNumberOperands(operator, l, r);
+                    return (double)l * (double)r;
+                };
+            case PLUS:
+                return (interpreter, frame) -> {
+                    Object l = left.execute(interpreter, frame);
+                    Object r = right.execute(interpreter, frame);
+                    if (l instanceof Double && r instanceof Double) {
+                        return (double)l + (double)r;
+                    }
+                    if (l instanceof CharSequence || r instanceof CharSequence) {
+                        return LoxString.concat(l, r);
+                    }
+                    throw new RuntimeError(operator, "Operands must be numbers or strings.");
+                };
+            case GREATER:
+                return (interpreter, frame) -> {
+                    Object l = left.execute(interpreter, frame);
+                    Object r = right.execute(interpreter, frame);
+                    checkNumberOperands(operator, l, r);
+                    return (double)l > (double)r;
+                };
+            case GREATEREQ:
+                return (interpreter, frame) -> {
+                    Object l = left.execute(interpreter, frame);
+                    Object r = right.execute(interpreter, frame);
+                    checkNumberOperands(operator, l, r);
+                    return (double)l >= (double)r;
+                };
+            case LESS:
+                return (interpreter, frame) -> {
+                    Object l = left.execute(interpreter, frame);
+                    Object r = right.execute(interpreter, frame);
+                    checkNumberOperands(operator, l, r);
+                    return (double)l < (double)r;
+                };
+            case LESSEQ:
+                return (interpreter, frame) -> {
+                    Object l = left.execute(interpreter, frame);
+                    Object r = right.execute(interpreter, frame);
+                    checkNumberOperands(operator, l, r);
+                    return (double)l <= (double)r;
+                };
+            case BANGEQ:
+                return (interpreter, frame) ->
+                        !Interpreter.isEqual(left.execute(interpreter, frame), right.execute(interpreter, frame));
+            case EQEQ:
+                return (interpreter, frame) ->
+                        Interpreter.isEqual(left.execute(interpreter, frame), right.execute(interpreter, frame));
+            default:
+                return (interpreter, frame) -> {
+                    left.execute(interpreter, frame);
+                    right.execute(interpreter, frame);
+                    return null;
+                };
+        }
+    }
+
+    @Override
+    public Node visitLogicalExpr(Expr.Logical expr) {
+        Node left = compile(expr.left);
+        Node right = compile(expr.right);
+
+        /* Short circuit evaluation of logical operators--like every other language out there. */
+        if (expr.operator.type == TokenType.OR) {
+            return (interpreter, frame) -> {
+                Object l = left.execute(interpreter, frame);
+                return Interpreter.isTruthy(l) ? l : right.execute(interpreter, frame);
+            };
+        }
+        return (interpreter, frame) -> {
+            Object l = left.execute(interpreter, frame);
+            return !Interpreter.isTruthy(l) ? l : right.execute(interpreter, frame);
+        };
+    }
+
+    @Override
+    public Node visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public Node visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        return (interpreter, frame) -> value;
+    }
+
+    @Override
+    public Node visitUnaryExpr(Expr.Unary expr) {
+        Node right = compile(expr.right);
+        Token operator = expr.operator;
+
+        switch (operator.type) {
+            case MINUS:
+                return (interpreter, frame) -> {
+                    Object operand = right.execute(interpreter, frame);
+                    checkNumberOperand(operator, operand);
+                    return -(double)operand;
+                };
+            case BANG:
+                return (interpreter, frame) -> !Interpreter.isTruthy(right.execute(interpreter, frame));
+            default:
+                return (interpreter, frame) -> {
+                    right.execute(interpreter, frame);
+                    return null;
+                };
+        }
+    }
+
+    @Override
+    public Node visitVariableExpr(Expr.Variable expr) {
+        Token name = expr.name;
+        int depth = expr.depth;
+        int slot = expr.slot;
+        if (depth < 0) {
+            return (interpreter, frame) -> interpreter.globals.get(name);
+        }
+        if (depth == 0) {
+            return (interpreter, frame) -> frame.get(slot);
+        }
+        return (interpreter, frame) -> frame.getAt(depth, slot);
+    }
+
+    @Override
+    public Node visitAssignExpr(Expr.Assign expr) {
+        Node value = compile(expr.value);
+        Token name = expr.name;
+        int depth = expr.depth;
+        int slot = expr.slot;
+        if (depth < 0) {
+            return (interpreter, frame) -> {
+                Object v = value.execute(interpreter, frame);
+                interpreter.globals.assign(name, v);
+                return v;
+            };
+        }
+        return (interpreter, frame) -> {
+            Object v = value.execute(interpreter, frame);
+            frame.assignAt(depth, slot, v);
+            return v;
+        };
+    }
+}
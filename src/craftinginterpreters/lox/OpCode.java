@@ -0,0 +1,62 @@
+package craftinginterpreters.lox;
+
+/*
+ Instruction set for the bytecode VM. Each instruction is a one byte opcode, followed by any operands it takes.
+ Constant and name operands are two byte indexes into the chunk's constant pool, slot operands are one byte.
+ */
+final class OpCode {
+    /* CONSTANT index16 */
+    static final byte CONSTANT = 0;
+    static final byte NIL = 1;
+    static final byte TRUE = 2;
+    static final byte FALSE = 3;
+    static final byte POP = 4;
+
+    /* GET_LOCAL/SET_LOCAL slot8 */
+    static final byte GET_LOCAL = 5;
+    static final byte SET_LOCAL = 6;
+    /* GET_GLOBAL/DEFINE_GLOBAL/SET_GLOBAL name16 */
+    static final byte GET_GLOBAL = 7;
+    static final byte DEFINE_GLOBAL = 8;
+    static final byte SET_GLOBAL = 9;
+    /* GET_UPVALUE/SET_UPVALUE index8 */
+    static final byte GET_UPVALUE = 10;
+    static final byte SET_UPVALUE = 11;
+    /* GET_PROPERTY/SET_PROPERTY/GET_SUPER name16 */
+    static final byte GET_PROPERTY = 12;
+    static final byte SET_PROPERTY = 13;
+    static final byte GET_SUPER = 14;
+
+    static final byte EQUAL = 15;
+    static final byte GREATER = 16;
+    static final byte GREATER_EQUAL = 17;
+    static final byte LESS = 18;
+    static final byte LESS_EQUAL = 19;
+    static final byte ADD = 20;
+    static final byte SUBTRACT = 21;
+    static final byte MULTIPLY = 22;
+    static final byte DIVIDE = 23;
+    static final byte NOT = 24;
+    static final byte NEGATE = 25;
+    static final byte PRINT = 26;
+
+    /* JUMP/JUMP_IF_FALSE/LOOP offset16. JUMP_IF_FALSE leaves the condition on the stack. */
+    static final byte JUMP = 27;
+    static final byte JUMP_IF_FALSE = 28;
+    static final byte LOOP = 29;
+
+    /* CALL argCount8 */
+    static final byte CALL = 30;
+    /* CLOSURE function16, then an (isLocal8, index8) pair for each upvalue */
+    static final byte CLOSURE = 31;
+    static final byte CLOSE_UPVALUE = 32;
+    static final byte RETURN = 33;
+
+    /* CLASS name16 hasSuperclass8 */
+    static final byte CLASS = 34;
+    /* METHOD name16 */
+    static final byte METHOD = 35;
+
+    private OpCode() {
+    }
+}
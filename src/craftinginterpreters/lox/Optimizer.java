@@ -0,0 +1,379 @@
+package craftinginterpreters.lox;
+/* Simplify the resolved AST before any backend sees it. */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ Folds operators whose operands are all literals, replaces reads of local variables that are initialized
+ with a literal and never assigned with that literal, and drops branches and loops whose condition is known.
+ In conditions, where only truthiness matters, '!!x' becomes 'x'.
+
+ Nothing that could fail is folded: '-"a"' or '1 < nil' is left for the backend, so the runtime error it
+ raises still carries the operator's line. Function bodies are rewritten in place; a block, or an expression,
+ whose contents changed is rebuilt, copying over whatever the Resolver recorded on it. The optimizer runs after
+ the Resolver, so compile errors are reported even in code it removes.
+ */
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    /* Returned by fold() when an operation can't be done ahead of time */
+    private static final Object NOT_CONSTANT = new Object();
+
+    /* The values of locals that are known to never change, by their declaration */
+    private final Map<Stmt.Var, Object> constants = new HashMap<>();
+
+    void optimize(List<Stmt> statements) {
+        for (int i = 0; i < statements.size(); i++) {
+            Stmt statement = optimize(statements.get(i));
+            if (statement == null) {
+                statements.remove(i--);
+            } else {
+                statements.set(i, statement);
+            }
+        }
+    }
+
+    /* Returns null for a statement that can be dropped */
+    private Stmt optimize(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }
+
+    /* For the branches of if and while, which need some statement even if it does nothing */
+    private Stmt optimizeBranch(Stmt stmt) {
+        Stmt optimized = optimize(stmt);
+        if (optimized == null) {
+            return new Stmt.Block(new ArrayList<>());
+        }
+        return optimized;
+    }
+
+    /* Optimize an expression whose value is only tested for truthiness */
+    private Expr condition(Expr expr) {
+        return simplifyCondition(optimize(expr));
+    }
+
+    private Expr simplifyCondition(Expr expr) {
+        if (expr instanceof Expr.Unary) {
+            Expr.Unary not = (Expr.Unary)expr;
+            if (not.operator.type == TokenType.BANG && not.right instanceof Expr.Unary) {
+                Expr.Unary inner = (Expr.Unary)not.right;
+                if (inner.operator.type == TokenType.BANG) {
+                    return simplifyCondition(inner.right);
+                }
+            }
+        }
+
+        /* 'a or b' is truthy exactly when one of its operands is, so they can be simplified as well */
+        if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical)expr;
+            Expr left = simplifyCondition(logical.left);
+            Expr right = simplifyCondition(logical.right);
+            if (left != logical.left || right != logical.right) {
+                return new Expr.Logical(left, logical.operator, right);
+            }
+        }
+        return expr;
+    }
+
+    private static boolean isLiteral(Expr expr) {
+        return expr instanceof Expr.Literal;
+    }
+
+    private static Object valueOf(Expr expr) {
+        return ((Expr.Literal)expr).value;
+    }
+
+    private static Object fold(TokenType operator, Object left, Object right) {
+        switch (operator) {
+            case EQEQ:
+                return Interpreter.isEqual(left, right);
+            case BANGEQ:
+                return !Interpreter.isEqual(left, right);
+            case PLUS:
+                if (left instanceof String && right != null || right instanceof String && left != null) {
+                    return left.toString() + right.toString();
+                }
+                break;
+        }
+
+        if (!(left instanceof Double && right instanceof Double)) {
+            return NOT_CONSTANT;
+        }
+
+        double l = (double)left;
+        double r = (double)right;
+        switch (operator) {
+            case MINUS:     return l - r;
+            case SLASH:     return l / r;
+            case STAR:      return l * r;
+            case PLUS:      return l + r;
+            case GREATER:   return l > r;
+            case GREATEREQ: return l >= r;
+            case LESS:      return l < r;
+            case LESSEQ:    return l <= r;
+        }
+        return NOT_CONSTANT;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (isLiteral(left) && isLiteral(right)) {
+            Object value = fold(expr.operator.type, valueOf(left), valueOf(right));
+            if (value != NOT_CONSTANT) {
+                return new Expr.Literal(value);
+            }
+        }
+
+        if (left == expr.left && right == expr.right) {
+            return expr;
+        }
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        boolean isNot = expr.operator.type == TokenType.BANG;
+        Expr right = isNot ? condition(expr.right) : optimize(expr.right);
+
+        if (isLiteral(right)) {
+            Object value = valueOf(right);
+            if (isNot) {
+                return new Expr.Literal(!Interpreter.isTruthy(value));
+            }
+            if (value instanceof Double) {
+                return new Expr.Literal(-(double)value);
+            }
+        }
+
+        if (right == expr.right) {
+            return expr;
+        }
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (isLiteral(left)) {
+            boolean truthy = Interpreter.isTruthy(valueOf(left));
+            boolean shortCircuits = expr.operator.type == TokenType.OR ? truthy : !truthy;
+            return shortCircuits ? left : right;
+        }
+
+        if (left == expr.left && right == expr.right) {
+            return expr;
+        }
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    /* Parentheses only matter to the parser */
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        if (expr.declaration != null && constants.containsKey(expr.declaration)) {
+            return new Expr.Literal(constants.get(expr.declaration));
+        }
+        return expr;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = optimize(expr.value);
+        if (value == expr.value) {
+            return expr;
+        }
+
+        Expr.Assign assign = new Expr.Assign(expr.name, value);
+        assign.depth = expr.depth;
+        assign.slot = expr.slot;
+        return assign;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            expr.arguments.set(i, optimize(expr.arguments.get(i)));
+        }
+
+        Expr callee = optimize(expr.callee);
+        if (callee == expr.callee) {
+            return expr;
+        }
+
+        Expr.Call call = new Expr.Call(callee, expr.paren, expr.arguments);
+        call.isTailCall = expr.isTailCall;
+        return call;
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = optimize(expr.object);
+        if (object == expr.object) {
+            return expr;
+        }
+
+        Expr.Get get = new Expr.Get(object, expr.name);
+        get.site = expr.site;
+        return get;
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = optimize(expr.object);
+        Expr value = optimize(expr.value);
+        if (object == expr.object && value == expr.value) {
+            return expr;
+        }
+
+        Expr.Set set = new Expr.Set(object, expr.name, value);
+        set.site = expr.site;
+        return set;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = condition(stmt.condition);
+        if (isLiteral(condition)) {
+            if (Interpreter.isTruthy(valueOf(condition))) {
+                return optimize(stmt.thenBranch);
+            }
+            return stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+        }
+
+        Stmt thenBranch = optimizeBranch(stmt.thenBranch);
+        Stmt elseBranch = stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = condition(stmt.condition);
+        if (isLiteral(condition) && !Interpreter.isTruthy(valueOf(condition))) {
+            return null;
+        }
+
+        Stmt body = optimizeBranch(stmt.body);
+        if (condition == stmt.condition && body == stmt.body) {
+            return stmt;
+        }
+        return new Stmt.While(condition, body);
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        /* The blocks the Parser makes for a for loop hold fixed-size lists, so work on a copy */
+        List<Stmt> statements = new ArrayList<>(stmt.statements);
+        optimize(statements);
+        if (statements.isEmpty()) {
+            return null;
+        }
+        if (statements.equals(stmt.statements)) {
+            return stmt;
+        }
+
+        Stmt.Block block = new Stmt.Block(statements);
+        block.frameSize = stmt.frameSize;
+        return block;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer == null) {
+            return stmt;
+        }
+
+        Expr initializer = optimize(stmt.initializer);
+        if (stmt.slot >= 0 && !stmt.isReassigned && isLiteral(initializer)) {
+            constants.put(stmt, valueOf(initializer));
+        }
+        if (initializer == stmt.initializer) {
+            return stmt;
+        }
+
+        Stmt.Var var = new Stmt.Var(stmt.name, initializer);
+        var.slot = stmt.slot;
+        var.isReassigned = stmt.isReassigned;
+        return var;
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        optimize(stmt.body);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        for (Stmt.Function method : stmt.methods) {
+            optimize(method.body);
+        }
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) {
+            return stmt;
+        }
+
+        Expr value = optimize(stmt.value);
+        if (value == stmt.value) {
+            return stmt;
+        }
+        return new Stmt.Return(stmt.keyword, value);
+    }
+
+    /* An expression statement with nothing left but a literal has no effect */
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (isLiteral(expression)) {
+            return null;
+        }
+        if (expression == stmt.expression) {
+            return stmt;
+        }
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression == stmt.expression) {
+            return stmt;
+        }
+        return new Stmt.Print(expression);
+    }
+}
@@ -10,13 +10,26 @@ public class Parser {
 
     private static class ParseError extends RuntimeException{}
 
-    private final List<Token> tokens;
-    private int current = 0;
+    /* Tokens are pulled from the scanner as they are needed; only the last one consumed and the next are kept */
+    private final Scanner scanner;
+    private final CompileErrors errors;
+    private Token previous;
+    private Token next;
 
     private final int MAX_PARAMETERS = 8;
 
-    Parser(List<Token> tokens){
-        this.tokens = tokens;
+    /* The token types matched at each precedence level, made once rather than as a varargs array per call */
+    private static final TokenType[] EQUALITY_OPERATORS = {BANGEQ, EQEQ};
+    private static final TokenType[] COMPARISON_OPERATORS = {GREATER, GREATEREQ, LESS, LESSEQ};
+    private static final TokenType[] ADDITION_OPERATORS = {PLUS, MINUS};
+    private static final TokenType[] MULTIPLICATION_OPERATORS = {STAR, SLASH};
+    private static final TokenType[] UNARY_OPERATORS = {BANG, MINUS};
+    private static final TokenType[] LITERALS = {NUMBER, STRING};
+
+    Parser(Scanner scanner, CompileErrors errors){
+        this.scanner = scanner;
+        this.errors = errors;
+        this.next = scanner.nextToken();
     }
 
     /* program -> declaration* EOF */
@@ -29,6 +42,16 @@ public class Parser {
         return statements;
     }
 
+    /* Whether there is another declaration to parse */
+    boolean hasNext() {
+        return !isAtEnd();
+    }
+
+    /* The next declaration of the program, or null if it had a syntax error */
+    Stmt parseDeclaration() {
+        return declaration();
+    }
+
     /*
     declaration -> varDecl
     declaration -> statement
@@ -321,7 +344,7 @@ public class Parser {
     private Expr equality(){
         Expr expr = comparison();
 
-        while (match(BANGEQ, EQEQ)){
+        while (match(EQUALITY_OPERATORS)){
             Token op = previous();
             Expr right = comparison();
             expr = new Expr.Binary(expr, op, right);
@@ -334,7 +357,7 @@ public class Parser {
     private Expr comparison(){
         Expr expr = addition();
 
-        while (match(GREATER, GREATEREQ, LESS, LESSEQ)){
+        while (match(COMPARISON_OPERATORS)){
             Token op = previous();
             Expr right = addition();
             expr = new Expr.Binary(expr, op, right);
@@ -347,7 +370,7 @@ public class Parser {
     private Expr addition(){
         Expr expr = multiplication();
 
-        while (match(PLUS, MINUS)){
+        while (match(ADDITION_OPERATORS)){
             Token op = previous();
             Expr right = multiplication();
             expr = new Expr.Binary(expr, op, right);
@@ -360,7 +383,7 @@ public class Parser {
     private Expr multiplication(){
         Expr expr = unary();
 
-        while (match(STAR, SLASH)){
+        while (match(MULTIPLICATION_OPERATORS)){
             Token op = previous();
             Expr right = unary();
             expr = new Expr.Binary(expr, op, right);
@@ -374,7 +397,7 @@ public class Parser {
        unary -> call
      */
     private Expr unary(){
-       if (match(BANG, MINUS)){
+       if (match(UNARY_OPERATORS)){
            Token op = previous();
            return new Expr.Unary(op, unary());
        }else {
@@ -428,7 +451,7 @@ public class Parser {
             return new Expr.Literal(null);
         }
 
-        if (match(NUMBER, STRING)){
+        if (match(LITERALS)){
             return new Expr.Literal(previous().literal);
         }
 
@@ -455,6 +478,16 @@ public class Parser {
         throw error(peek(), "Expect expression");
     }
 
+    /* Advance if next token is type; most calls only check one, and shouldn't need an array for it */
+    private boolean match(TokenType type){
+        if (check(type)){
+            advance();
+            return true;
+        }
+
+        return false;
+    }
+
     /* Advance if next token is one of types */
     private boolean match(TokenType... types){
         for (TokenType type : types){
@@ -479,7 +512,8 @@ public class Parser {
     /* Consume the next token of input */
     private Token advance(){
         if (!isAtEnd()){
-            current++;
+            previous = next;
+            next = scanner.nextToken();
         }
 
         return previous();
@@ -491,12 +525,12 @@ public class Parser {
 
     /* Return the next token of input, but do not consume it */
     private Token peek(){
-        return tokens.get(current);
+        return next;
     }
 
     /* Return the last token seen */
     private Token previous(){
-        return tokens.get(current - 1);
+        return previous;
     }
 
     private Token consume(TokenType type, String message){
@@ -507,7 +541,9 @@ public class Parser {
     }
 
     private ParseError error(Token tok, String message){
-        Lox.error(tok, message);
+        if (tok.type != EOF || !scanner.failed()) {
+            errors.error(tok, message);
+        }
         return new ParseError();
     }
 
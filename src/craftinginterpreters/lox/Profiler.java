@@ -0,0 +1,170 @@
+package craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ A sampling profiler for Lox code. Every engine pushes the function it is about to run onto a shadow stack
+ of Lox frames and pops it when the function returns; a tail call replaces the top frame, the way it
+ replaces the Java one. A daemon thread copies the shadow stack every INTERVAL_MILLIS and counts how often
+ it saw each stack. When the profiler is off there is no shadow stack, and the engines only test a field
+ for null on each call.
+
+ The shadow stack is written without any synchronization, so a sample taken in the middle of a push or pop
+ can be a frame off. That is the usual price of a sampling profiler that doesn't slow down what it samples.
+ A runtime error leaves frames behind, but it also ends the program being profiled.
+
+ Frames are the Stmt.Function or VmFunction being run, labeled 'name:line' by the line they are declared on.
+ The counts are written in the collapsed stack format flame graph tools take, one 'frame;frame;... count'
+ line per distinct stack, rooted at the top level code as '<script>'.
+ */
+final class Profiler {
+    static final int INTERVAL_MILLIS = 1;
+    private static final String ROOT = "<script>";
+
+    /* Written only by the thread running Lox code */
+    private Object[] frames = new Object[256];
+    private int depth = 0;
+
+    /* Read and written only by the sampling thread, until it has been stopped */
+    private final Map<List<Object>, Integer> samples = new HashMap<>();
+    private final Map<Object, String> labels = new IdentityHashMap<>();
+    private int sampleCount = 0;
+    private Thread sampler;
+    private volatile boolean running;
+
+    void enter(Object function) {
+        if (depth == frames.length) {
+            frames = Arrays.copyOf(frames, depth * 2);
+        }
+        frames[depth] = function;
+        depth++;
+    }
+
+    void exit() {
+        if (depth > 0) {
+            depth--;
+        }
+    }
+
+    void replace(Object function) {
+        if (depth > 0) {
+            frames[depth - 1] = function;
+        }
+    }
+
+    void start() {
+        running = true;
+        sampler = new Thread(this::sample, "lox-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    void stop() {
+        running = false;
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sample() {
+        while (running) {
+            try {
+                Thread.sleep(INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            Object[] stack = frames;
+            int size = Math.min(depth, stack.length);
+            List<Object> key = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                Object frame = stack[i];
+                if (frame != null) {
+                    key.add(frame);
+                }
+            }
+            samples.merge(key, 1, Integer::sum);
+            sampleCount++;
+        }
+    }
+
+    private String label(Object frame) {
+        return labels.computeIfAbsent(frame, function -> {
+            if (function instanceof Stmt.Function) {
+                Token name = ((Stmt.Function)function).name;
+                return name.lexeme + ":" + name.line;
+            }
+            VmFunction vmFunction = (VmFunction)function;
+            return vmFunction.name + ":" + vmFunction.line;
+        });
+    }
+
+    /* Write the samples as collapsed stacks, for flame graphs */
+    void writeCollapsed(Path path) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+            for (Map.Entry<List<Object>, Integer> entry : samples.entrySet()) {
+                StringBuilder line = new StringBuilder(ROOT);
+                for (Object frame : entry.getKey()) {
+                    line.append(';').append(label(frame));
+                }
+                out.println(line.append(' ').append(entry.getValue()));
+            }
+        }
+    }
+
+    /*
+     Print how much of the time each function was running itself (self) and was anywhere on the stack
+     (total), busiest first. Recursive functions are only counted once per sample towards their total.
+     */
+    void printTable(PrintStream out) {
+        Map<String, int[]> counts = new HashMap<>();
+        for (Map.Entry<List<Object>, Integer> entry : samples.entrySet()) {
+            List<Object> stack = entry.getKey();
+            int count = entry.getValue();
+
+            String top = stack.isEmpty() ? ROOT : label(stack.get(stack.size() - 1));
+            counts.computeIfAbsent(top, label -> new int[2])[0] += count;
+
+            Set<String> seen = new HashSet<>();
+            seen.add(ROOT);
+            for (Object frame : stack) {
+                seen.add(label(frame));
+            }
+            for (String label : seen) {
+                counts.computeIfAbsent(label, name -> new int[2])[1] += count;
+            }
+        }
+
+        List<Map.Entry<String, int[]>> rows = new ArrayList<>(counts.entrySet());
+        rows.sort((a, b) -> a.getValue()[0] != b.getValue()[0]
+                ? Integer.compare(b.getValue()[0], a.getValue()[0])
+                : Integer.compare(b.getValue()[1], a.getValue()[1]));
+
+        out.printf("%d samples, one every %d ms%n", sampleCount, INTERVAL_MILLIS);
+        out.printf("%8s %7s %8s %7s  %s%n", "self", "", "total", "", "function");
+        for (Map.Entry<String, int[]> row : rows) {
+            int self = row.getValue()[0];
+            int total = row.getValue()[1];
+            out.printf("%8d %6.1f%% %8d %6.1f%%  %s%n", self, percent(self), total, percent(total), row.getKey());
+        }
+    }
+
+    private double percent(int count) {
+        return sampleCount == 0 ? 0 : 100.0 * count / sampleCount;
+    }
+}
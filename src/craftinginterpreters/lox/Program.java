@@ -0,0 +1,56 @@
+package craftinginterpreters.lox;
+
+import java.util.Collections;
+import java.util.List;
+
+/*
+ A parsed, resolved and optimized script, ready to run in any number of Contexts at once. Running a program
+ doesn't change what it means: the only things a run writes to the tree are feedback - operand
+ specializations and JIT call counts - each of which stays correct when threads race on it. Inline caches
+ hold a context's own shapes and classes, so each context keeps them itself, in an array of caches for the
+ program indexed by the site numbers in the tree.
+ The Nodes the closure engine runs and the bytecode the VM runs are compiled from the tree the first time a
+ context asks for them, and shared too.
+ */
+public final class Program {
+    final List<Stmt> statements;
+    /* The number of property access sites in statements, which are numbered from 0 */
+    final int sites;
+
+    private Node[] nodes;
+    private VmFunction bytecode;
+    /* What the bytecode compiler found, or null until the program has been compiled for the VM */
+    private CompileErrors bytecodeErrors;
+
+    Program(List<Stmt> statements, int sites) {
+        this.statements = Collections.unmodifiableList(statements);
+        this.sites = sites;
+    }
+
+    /* Compile source, reporting any errors to errors. Returns null if it has compile errors. */
+    public static Program compile(String source, CompileErrors errors) {
+        return Lox.compile(new Scanner(source, errors), errors);
+    }
+
+    /* The program compiled for the closure engine */
+    synchronized Node[] nodes() {
+        if (nodes == null) {
+            nodes = new NodeCompiler().compile(statements);
+        }
+        return nodes;
+    }
+
+    /* The program compiled for the VM, or null if it has errors the bytecode compiler found */
+    synchronized VmFunction bytecode() {
+        if (bytecodeErrors == null) {
+            bytecodeErrors = new CompileErrors();
+            bytecode = Lox.compileBytecode(statements, bytecodeErrors);
+        }
+        return bytecode;
+    }
+
+    /* The errors that kept bytecode() from compiling the program */
+    synchronized List<String> bytecodeErrors() {
+        return bytecodeErrors == null ? List.of() : bytecodeErrors.messages();
+    }
+}
@@ -1,14 +1,26 @@
 package craftinginterpreters.lox;
 /* Walk the AST to resolve variable references. */
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Stack<Map<Symbol, Local>> scopes = new Stack<>();
+
+    /* Where a local lives in its frame, and whether its initializer has finished running */
+    private static class Local {
+        final int slot;
+        boolean defined = false;
+        /* The var statement that declared it, if it is a variable rather than a parameter, function or class */
+        Stmt.Var declaration = null;
+
+        Local(int slot) {
+            this.slot = slot;
+        }
+    }
 
     private enum FunctionType {
         NONE,
@@ -24,8 +36,18 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     private FunctionType currentFunction = FunctionType.NONE;
+    private Stmt.Function currentDeclaration = null;
     private ClassType currentClass       = ClassType.NONE;
+    /* The methods named by super expressions in the class being resolved */
+    private List<Token> superMethods = null;
 
+    private final CompileErrors errors;
+    /* The number of property access sites numbered so far, which is the next one's number */
+    private int sites = 0;
+
+    Resolver(CompileErrors errors) {
+        this.errors = errors;
+    }
 
     protected void resolve(List<Stmt> stmts) {
         for (Stmt stmt : stmts) {
@@ -33,6 +55,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
     }
 
+    /* How many property access sites the statements resolved so far have, numbered from 0 */
+    int sites() {
+        return sites;
+    }
+
     private void resolve(Stmt stmt) {
         stmt.accept(this);
     }
@@ -41,49 +68,66 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         expr.accept(this);
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    /* Count how many scopes out name was declared in, or -1 if it must be a global */
+    private int resolveLocal(Token name) {
         /* Hello darkness^H^H^H^H^H^H^H^H static links, my old friend... */
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+            if (scopes.get(i).containsKey(name.symbol)) {
+                return scopes.size() - 1 - i;
             }
         }
+        return -1;
+    }
+
+    private Local localAt(int depth, Token name) {
+        return scopes.get(scopes.size() - 1 - depth).get(name.symbol);
     }
 
     private void resolveFunction(Stmt.Function function, FunctionType type) {
         FunctionType enclosingFunc = currentFunction;
+        Stmt.Function enclosingDeclaration = currentDeclaration;
         currentFunction = type;
+        currentDeclaration = function;
 
         beginScope();
+        /* A method's receiver takes slot 0 of its own frame, ahead of the parameters */
+        function.isMethod = type == FunctionType.METHOD || type == FunctionType.INITIALIZER;
+        if (function.isMethod) {
+            declareImplicit(Symbol.THIS);
+        }
         for (Token param : function.parameters) {
             declare(param);
             define(param);
         }
 
         resolve(function.body);
+        function.frameSize = scopes.peek().size();
         endScope();
 
         currentFunction = enclosingFunc;
+        currentDeclaration = enclosingDeclaration;
     }
 
     private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
+        scopes.push(new HashMap<Symbol, Local>());
     }
 
     private void endScope() {
         scopes.pop();
     }
 
-    private void declare(Token name) {
+    /* Give name the next free slot in the innermost scope. Returns -1 for globals, which have no slot. */
+    private int declare(Token name) {
         if (scopes.isEmpty()) {
-            return;
+            return -1;
         }
-        Map<String, Boolean> scope = scopes.peek();
-        if (scope.containsKey(name.lexeme)) {
-            Lox.error(name, "Variable with this name already declared in current scope.");
+        Map<Symbol, Local> scope = scopes.peek();
+        if (scope.containsKey(name.symbol)) {
+            errors.error(name, "Variable with this name already declared in current scope.");
         }
-        scope.put(name.lexeme, false);
+        Local local = new Local(scope.size());
+        scope.put(name.symbol, local);
+        return local.slot;
     }
 
     private void define(Token name) {
@@ -91,7 +135,14 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             return;
         }
 
-        scopes.peek().put(name.lexeme, true);
+        scopes.peek().get(name.symbol).defined = true;
+    }
+
+    /* Declare one of the implicit 'this' or 'super' variables, which always take slot 0 of their scope */
+    private void declareImplicit(Symbol name) {
+        Local local = new Local(0);
+        local.defined = true;
+        scopes.peek().put(name, local);
     }
 
     @Override
@@ -139,59 +190,95 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitSetExpr(Expr.Set expr) {
         resolve(expr.value);
         resolve(expr.object);
+        expr.site = sites++;
         return null;
     }
 
     @Override
     public Void visitGetExpr(Expr.Get expr) {
         resolve(expr.object);
+        expr.site = sites++;
         return null;
     }
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE){
-            Lox.error(expr.name, "Cannot access variable in its own initializer!");
+        Local local = scopes.isEmpty() ? null : scopes.peek().get(expr.name.symbol);
+        if (local != null && !local.defined){
+            errors.error(expr.name, "Cannot access variable in its own initializer!");
         }
 
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveLocal(expr.name);
+        if (expr.depth >= 0) {
+            Local resolved = localAt(expr.depth, expr.name);
+            expr.slot = resolved.slot;
+            expr.declaration = resolved.declaration;
+        }
         return null;
     }
 
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveLocal(expr.name);
+        if (expr.depth >= 0) {
+            Local resolved = localAt(expr.depth, expr.name);
+            expr.slot = resolved.slot;
+            if (resolved.declaration != null) {
+                resolved.declaration.isReassigned = true;
+            }
+        }
         return null;
     }
 
     @Override
     public Void visitThisExpr(Expr.This expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Cannot use 'this' outside of a class.");
+            errors.error(expr.keyword, "Cannot use 'this' outside of a class.");
             return null;
         }
-        resolveLocal(expr, expr.keyword);
+        expr.depth = resolveLocal(expr.keyword);
         return null;
     }
 
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Cannot use 'super' outside of class.");
+            errors.error(expr.keyword, "Cannot use 'super' outside of class.");
         }else if (currentClass != ClassType.SUBCLASS) {
-            Lox.error(expr.keyword, "Cannot use 'super' in class with no superclass.");
+            errors.error(expr.keyword, "Cannot use 'super' in class with no superclass.");
         }
 
-        resolveLocal(expr, expr.keyword);
+        expr.depth = resolveLocal(expr.keyword);
+        if (superMethods != null) {
+            expr.index = superMethodIndex(expr.method);
+        }
         return null;
     }
 
+    private int superMethodIndex(Token method) {
+        for (int i = 0; i < superMethods.size(); i++) {
+            if (superMethods.get(i).symbol == method.symbol) return i;
+        }
+        superMethods.add(method);
+        return superMethods.size() - 1;
+    }
+
+    /* A function that creates closures can't have its frame reused by a tail call, as they might capture it */
+    private void noteClosure() {
+        if (currentDeclaration != null) {
+            currentDeclaration.hasClosures = true;
+        }
+    }
+
     @Override
     public Void visitClassStmt(Stmt.Class stmt) {
+        noteClosure();
         ClassType enclosingClass = currentClass;
+        List<Token> enclosingSuperMethods = superMethods;
         currentClass = ClassType.CLASS;
-        declare(stmt.name);
+        superMethods = null;
+        stmt.slot = declare(stmt.name);
 
         if (stmt.superclass != null) {
             currentClass = ClassType.SUBCLASS;
@@ -202,24 +289,23 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         if (stmt.superclass != null) {
             beginScope();
-            scopes.peek().put("super", true);
+            declareImplicit(Symbol.SUPER);
+            superMethods = new ArrayList<>();
+            stmt.superMethods = superMethods;
         }
 
-        beginScope();
-        scopes.peek().put("this", true);
-
         for (Stmt.Function method : stmt.methods) {
             FunctionType declaration = FunctionType.METHOD;
-            if (method.name.equals("init")) {
+            if (method.name.symbol == Symbol.INIT) {
                 declaration = FunctionType.INITIALIZER;
             }
             resolveFunction(method, declaration);
         }
-        endScope();
         if (stmt.superclass != null) {
             endScope();
         }
         currentClass = enclosingClass;
+        superMethods = enclosingSuperMethods;
 
         return null;
     }
@@ -227,22 +313,26 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if (currentFunction == FunctionType.NONE) {
-            Lox.error(stmt.keyword, "Cannot return from top level code.");
+            errors.error(stmt.keyword, "Cannot return from top level code.");
         }
 
 
         if (stmt.value != null) {
             if (currentFunction == FunctionType.INITIALIZER) {
-                Lox.error(stmt.keyword, "Cannot return a value from an initializer.");
+                errors.error(stmt.keyword, "Cannot return a value from an initializer.");
             }
             resolve(stmt.value);
+            if (stmt.value instanceof Expr.Call) {
+                ((Expr.Call)stmt.value).isTailCall = true;
+            }
         }
         return null;
     }
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        noteClosure();
+        stmt.slot = declare(stmt.name);
         define(stmt.name);
         resolveFunction(stmt, FunctionType.FUNCTION);
         return null;
@@ -269,6 +359,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitBlockStmt(Stmt.Block stmt) {
         beginScope();
         resolve(stmt.statements);
+        stmt.frameSize = scopes.peek().size();
         endScope();
         return null;
     }
@@ -287,7 +378,10 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
+        if (stmt.slot >= 0) {
+            scopes.peek().get(stmt.name.symbol).declaration = stmt;
+        }
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
@@ -295,8 +389,4 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         return null;
     }
-
-    public Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
-    }
 }
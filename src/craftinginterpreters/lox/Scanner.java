@@ -1,154 +1,257 @@
 package craftinginterpreters.lox;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
 
 import static craftinginterpreters.lox.TokenType.*;
 
+/*
+ Reads source through a Reader and hands tokens to the Parser one at a time, so neither the whole source
+ nor the whole token list is ever held in memory. Only the characters of the token being scanned are kept:
+ the buffer is refilled by moving them to its front, and only grows for a token longer than the buffer.
+ */
 public class Scanner {
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    private static final int BUFFER_SIZE = 8192;
 
-    private int start = 0; /* Position of start of current token */
-    private int current = 0; /* Current position in input */
+    private final Reader reader;
+    private final CompileErrors errors;
+    private char[] buffer = new char[BUFFER_SIZE];
+    private int limit = 0; /* Number of characters read into buffer */
+    private boolean exhausted = false; /* Whether reader has no more input */
+    private boolean failed = false; /* Whether reading stopped on an error that has been reported */
+
+    private int start = 0; /* Position of start of current token in buffer */
+    private int current = 0; /* Current position in buffer */
     private int line = 1; /* Line number */
 
-    private static final Map<String, TokenType> keywords;
+    public Scanner(String source, CompileErrors errors) {
+        this(new StringReader(source), errors);
+    }
 
-    static {
-        keywords = new HashMap<>();
-        keywords.put("and", AND);
-        keywords.put("class", CLASS);
-        keywords.put("else", ELSE);
-        keywords.put("false", FALSE);
-        keywords.put("for", FOR);
-        keywords.put("fun", FUN);
-        keywords.put("if", IF);
-        keywords.put("nil", NIL);
-        keywords.put("or", OR);
-        keywords.put("print", PRINT);
-        keywords.put("return", RETURN);
-        keywords.put("super", SUPER);
-        keywords.put("this", THIS);
-        keywords.put("true", TRUE);
-        keywords.put("var", VAR);
-        keywords.put("while", WHILE);
+    public Scanner(Reader reader, CompileErrors errors) {
+        this.reader = reader;
+        this.errors = errors;
     }
 
-    public Scanner(String source) {
-        this.source = source;
+    /* Scan a file as UTF-8, reporting malformed input rather than replacing it */
+    static Scanner open(Path path, CompileErrors errors) throws IOException {
+        try (FileChannel channel = FileChannel.open(path)) {
+            /* The mapping stays valid after the channel is closed */
+            ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new Scanner(new MappedReader(bytes), errors);
+        }
+    }
+
+    /*
+     Decodes a mapped file as it is read. Characters decoded before malformed input are still returned, so
+     the error is only raised once scanning gets to it and is reported on the right line.
+     */
+    private static class MappedReader extends Reader {
+        private final ByteBuffer bytes;
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+
+        MappedReader(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read(char[] chars, int offset, int length) throws IOException {
+            if (!bytes.hasRemaining()) {
+                return -1;
+            }
+
+            CharBuffer out = CharBuffer.wrap(chars, offset, length);
+            CoderResult result = decoder.decode(bytes, out, true);
+            int read = out.position() - offset;
+            if (read == 0 && result.isError()) {
+                result.throwException();
+            }
+            return read;
+        }
+
+        @Override
+        public void close() {
+        }
     }
 
-    protected List<Token> scanTokens() {
-        while (!isAtEnd()) {
-            start = current;
-            scanToken();
+    /* Thrown by fill() once the input can't be read, so the rest of the source is not scanned at all */
+    private static class ReadError extends RuntimeException {}
+
+    /* Returns the next token, and EOF once the input is used up or could not be read */
+    protected Token nextToken() {
+        try {
+            while (true) {
+                start = current;
+                if (isAtEnd()) {
+                    close();
+                    return new Token(EOF, EOF.lexeme, null, line);
+                }
+
+                Token token = scanToken();
+                if (token != null) {
+                    return token;
+                }
+            }
+        } catch (ReadError e) {
+            /* Drop the partial token, so every later call returns EOF too */
+            exhausted = true;
+            failed = true;
+            limit = current = start;
+            close();
+            return new Token(EOF, EOF.lexeme, null, line);
         }
-        tokens.add(new Token(EOF, "", null, line));
-        return tokens;
     }
 
-    private void scanToken() {
+    /* Whether the source could not be read to its end, so an early EOF is not worth reporting again */
+    boolean failed() {
+        return failed;
+    }
+
+    /* Make sure the n characters from current on are in the buffer, unless the input ends first */
+    private boolean fill(int n) {
+        while (current + n > limit) {
+            if (exhausted) {
+                return false;
+            }
+
+            /* Keep the current token, drop everything before it */
+            if (start > 0) {
+                System.arraycopy(buffer, start, buffer, 0, limit - start);
+                limit -= start;
+                current -= start;
+                start = 0;
+            }
+            /* A surrogate pair needs room for two characters */
+            if (buffer.length - limit < 2) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+
+            int read;
+            try {
+                read = reader.read(buffer, limit, buffer.length - limit);
+            } catch (CharacterCodingException e) {
+                errors.error(line, "Source is not valid UTF-8.");
+                throw new ReadError();
+            } catch (IOException e) {
+                errors.error(line, "Could not read source: " + e.getMessage());
+                throw new ReadError();
+            }
+
+            if (read < 0) {
+                exhausted = true;
+            } else {
+                limit += read;
+            }
+        }
+        return true;
+    }
+
+    private void close() {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            /* Everything has been read already */
+        }
+    }
+
+    /* Returns null for whitespace, comments and characters that were reported as errors */
+    private Token scanToken() {
         char c = advance();
 
         switch (c) {
             case '(':
-                addToken(LPAREN);
-                break;
+                return addToken(LPAREN);
             case ')':
-                addToken(RPAREN);
-                break;
+                return addToken(RPAREN);
             case '{':
-                addToken(LBRACE);
-                break;
+                return addToken(LBRACE);
             case '}':
-                addToken(RBRACE);
-                break;
+                return addToken(RBRACE);
             case ',':
-                addToken(COMMA);
-                break;
+                return addToken(COMMA);
             case '.':
-                addToken(DOT);
-                break;
+                return addToken(DOT);
             case '-':
-                addToken(MINUS);
-                break;
+                return addToken(MINUS);
             case '+':
-                addToken(PLUS);
-                break;
+                return addToken(PLUS);
             case '*':
-                addToken(STAR);
-                break;
+                return addToken(STAR);
             case ';':
-                addToken(SEMICOLON);
-                break;
+                return addToken(SEMICOLON);
             case '!':
-                addToken(match('=') ? BANGEQ : BANG);
-                break;
+                return addToken(match('=') ? BANGEQ : BANG);
             case '=':
-                addToken(match('=') ? EQEQ : EQ);
-                break;
+                return addToken(match('=') ? EQEQ : EQ);
             case '>':
-                addToken(match('=') ? GREATEREQ : GREATER);
-                break;
+                return addToken(match('=') ? GREATEREQ : GREATER);
             case '<':
-                addToken(match('=') ? LESSEQ : LESS);
-                break;
+                return addToken(match('=') ? LESSEQ : LESS);
             case '/':
                 if(match('/')){
                     /* Eat comments */
                     while(peek() != '\n' && !isAtEnd()) advance();
-                }else{
-                    addToken(SLASH);
+                    return null;
                 }
-                break;
+                return addToken(SLASH);
             /* Handle whitespace and newlines */
             case ' ':
             case '\r':
             case '\t':
-                break;
+                return null;
             case '\n':
                 line++;
-                break;
+                return null;
 
             case '"':
-                string();
-                break;
+                return string();
             default:
                 if(isDigit(c)){
-                    number();
+                    return number();
                 }else if(isAlpha(c)) {
-                    identifier();
+                    return identifier();
                 }else{
-                    Lox.error(line, "Unexpected character.");
+                    errors.error(line, "Unexpected character.");
+                    return null;
                 }
-                break;
         }
     }
 
-    private void string(){
+    private Token string(){
         while(peek() != '"' && !isAtEnd()){
             /* Increment line position in multiline strings */
             if (peek() == '\n') {
                 line++;
             }
             advance();
+        }
 
-            if (isAtEnd()) {
-               Lox.error(line, "Unterminated string.");
-               return;
-            }
+        if (isAtEnd()) {
+            errors.error(line, "Unterminated string.");
+            return null;
         }
-                    /* Consume closing '"' */
+
+        /* Consume closing '"' */
         advance();
 
-        String val = source.substring(start+1, current-1);
-        addToken(STRING, val);
+        String val = new String(buffer, start + 1, current - start - 2);
+        return new Token(STRING, text(), val, line);
     }
 
-    private void number(){
+    private Token number(){
         while (isDigit(peek())){
             advance();
         }
@@ -161,25 +264,81 @@ public class Scanner {
             advance();
         }
 
-        addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+        String text = text();
+        return new Token(NUMBER, text, Double.parseDouble(text), line);
     }
 
-    private void identifier(){
+    private Token identifier(){
         while (isAlphaNumeric(peek())){
             advance();
         }
 
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
+        TokenType type = keyword();
         if (type == null){
-            type = IDENTIFIER;
+            return new Token(IDENTIFIER, Symbol.intern(buffer, start, current - start), line);
+        }
+        /* The Resolver looks these two up like variables */
+        if (type == THIS) {
+            return new Token(THIS, Symbol.THIS, line);
+        }
+        if (type == SUPER) {
+            return new Token(SUPER, Symbol.SUPER, line);
+        }
+        return addToken(type);
+    }
+
+    /* Recognize keywords by their characters in the buffer, without making a string of them first */
+    private TokenType keyword() {
+        switch (buffer[start]) {
+            case 'a': return keyword(1, "nd", AND);
+            case 'c': return keyword(1, "lass", CLASS);
+            case 'e': return keyword(1, "lse", ELSE);
+            case 'f':
+                if (current - start > 1) {
+                    switch (buffer[start + 1]) {
+                        case 'a': return keyword(2, "lse", FALSE);
+                        case 'o': return keyword(2, "r", FOR);
+                        case 'u': return keyword(2, "n", FUN);
+                    }
+                }
+                return null;
+            case 'i': return keyword(1, "f", IF);
+            case 'n': return keyword(1, "il", NIL);
+            case 'o': return keyword(1, "r", OR);
+            case 'p': return keyword(1, "rint", PRINT);
+            case 'r': return keyword(1, "eturn", RETURN);
+            case 's': return keyword(1, "uper", SUPER);
+            case 't':
+                if (current - start > 1) {
+                    switch (buffer[start + 1]) {
+                        case 'h': return keyword(2, "is", THIS);
+                        case 'r': return keyword(2, "ue", TRUE);
+                    }
+                }
+                return null;
+            case 'v': return keyword(1, "ar", VAR);
+            case 'w': return keyword(1, "hile", WHILE);
+        }
+        return null;
+    }
+
+    /* type, if the rest of the token after its first offset characters is rest */
+    private TokenType keyword(int offset, String rest, TokenType type) {
+        if (current - start != offset + rest.length()) {
+            return null;
+        }
+        for (int i = 0; i < rest.length(); i++) {
+            if (buffer[start + offset + i] != rest.charAt(i)) {
+                return null;
+            }
         }
-        addToken(type);
+        return type;
     }
 
     private char advance() {
+        fill(1);
         current++;
-        return source.charAt(current - 1);
+        return buffer[current - 1];
     }
 
     private boolean match(char expected) {
@@ -187,7 +346,7 @@ public class Scanner {
             return false;
         }
 
-        if (source.charAt(current) != expected) {
+        if (buffer[current] != expected) {
             return false;
         }
 
@@ -200,29 +359,29 @@ public class Scanner {
             return '\0';
 
         }else{
-            return source.charAt(current);
+            return buffer[current];
         }
     }
 
     /* Turns put we need 2 characters of lookahead :( */
     private char peekNext(){
-        if (current + 1 >= source.length()){
+        if (!fill(2)){
             return '\0';
         }
-        return source.charAt(current+1);
+        return buffer[current+1];
     }
 
-    private void addToken(TokenType type) {
-        addToken(type, null);
+    /* The characters of the token being scanned */
+    private String text() {
+        return new String(buffer, start, current - start);
     }
 
-    private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+    private Token addToken(TokenType type) {
+        return new Token(type, type.lexeme, null, line);
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return !fill(1);
     }
 
     /* Check if c is an ASCII digit - no unicode here */
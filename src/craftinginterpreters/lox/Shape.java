@@ -0,0 +1,56 @@
+package craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ The layout of an instance's fields: which name lives at which index of its field array. Shapes form a
+ transition tree rooted at each class, and adding a field moves an instance to the child shape for that
+ name, so instances whose fields are set in the same order, as they are by the same init, share a shape.
+ A shape therefore also identifies the class, which is what lets InlineCache key on it alone.
+ */
+final class Shape {
+    private static final Symbol[] NO_NAMES = new Symbol[0];
+
+    final LoxClass classs;
+    private final Symbol[] names;
+    private Map<Symbol, Shape> transitions;
+
+    Shape(LoxClass classs) {
+        this.classs = classs;
+        this.names = NO_NAMES;
+    }
+
+    private Shape(Shape parent, Symbol name) {
+        this.classs = parent.classs;
+        this.names = new Symbol[parent.names.length + 1];
+        System.arraycopy(parent.names, 0, names, 0, parent.names.length);
+        names[parent.names.length] = name;
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    /* The index of the named field, or -1 if instances of this shape do not have it */
+    int indexOf(Symbol name) {
+        for (int i = names.length - 1; i >= 0; i--) {
+            if (names[i] == name) return i;
+        }
+        return -1;
+    }
+
+    /* The shape an instance moves to when it gains the named field, at index size() */
+    Shape withField(Symbol name) {
+        if (transitions == null) {
+            transitions = new HashMap<>();
+        }
+
+        Shape next = transitions.get(name);
+        if (next == null) {
+            next = new Shape(this, name);
+            transitions.put(name, next);
+        }
+        return next;
+    }
+}
@@ -0,0 +1,147 @@
+package craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/*
+ Counters for what the interpreter spends its time on, turned on by --stats. Every place that counts tests
+ 'enabled' first, so with stats off the only cost is reading a static field. The counters are LongAdders,
+ which spread updates from different threads over separate cells and only add them up when read, so
+ counting never becomes a point of contention.
+
+ Reads of a property count as field or method reads at the point the instance resolves them; the inline
+ cache counts are per access site. Classes copy their superclasses' methods into one table, so a method
+ lookup is a single probe however deep the hierarchy is, and the lookups counted are the probes made when
+ no cache had the answer.
+ */
+final class Stats implements StatsMXBean {
+    static boolean enabled = false;
+
+    static final LongAdder calls = new LongAdder();
+    static final LongAdder environments = new LongAdder();
+    static final LongAdder fieldReads = new LongAdder();
+    static final LongAdder methodReads = new LongAdder();
+    static final LongAdder inlineCacheHits = new LongAdder();
+    static final LongAdder inlineCacheMisses = new LongAdder();
+    static final LongAdder methodLookups = new LongAdder();
+    static final LongAdder concatenations = new LongAdder();
+
+    /* Time spent in each phase of the front end. Parsing pulls tokens from the Scanner, so it includes scanning. */
+    static final LongAdder parseNanos = new LongAdder();
+    static final LongAdder resolveNanos = new LongAdder();
+    static final LongAdder optimizeNanos = new LongAdder();
+
+    private Stats() {
+    }
+
+    /* Start counting, and publish the counters to JMX */
+    static void enable() {
+        enabled = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(new Stats(), new ObjectName("craftinginterpreters.lox:type=Stats"));
+        } catch (JMException e) {
+            /* The counters still work, they are just not visible over JMX */
+            System.err.println("Could not register stats MBean: " + e);
+        }
+    }
+
+    /* The value of System.nanoTime() when counting, for timing a phase */
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    static void finish(LongAdder phase, long start) {
+        if (enabled) {
+            phase.add(System.nanoTime() - start);
+        }
+    }
+
+    static void print(PrintStream out) {
+        out.printf("%-22s %,14d%n", "calls", calls.sum());
+        out.printf("%-22s %,14d%n", "environments", environments.sum());
+        out.printf("%-22s %,14d%n", "field reads", fieldReads.sum());
+        out.printf("%-22s %,14d%n", "method reads", methodReads.sum());
+        out.printf("%-22s %,14d%n", "inline cache hits", inlineCacheHits.sum());
+        out.printf("%-22s %,14d%n", "inline cache misses", inlineCacheMisses.sum());
+        out.printf("%-22s %,14d%n", "method lookups", methodLookups.sum());
+        out.printf("%-22s %,14d%n", "concatenations", concatenations.sum());
+        out.printf("%-22s %,14d ms%n", "parse", TimeUnit.NANOSECONDS.toMillis(parseNanos.sum()));
+        out.printf("%-22s %,14d ms%n", "resolve", TimeUnit.NANOSECONDS.toMillis(resolveNanos.sum()));
+        out.printf("%-22s %,14d ms%n", "optimize", TimeUnit.NANOSECONDS.toMillis(optimizeNanos.sum()));
+    }
+
+    @Override
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getEnvironments() {
+        return environments.sum();
+    }
+
+    @Override
+    public long getFieldReads() {
+        return fieldReads.sum();
+    }
+
+    @Override
+    public long getMethodReads() {
+        return methodReads.sum();
+    }
+
+    @Override
+    public long getInlineCacheHits() {
+        return inlineCacheHits.sum();
+    }
+
+    @Override
+    public long getInlineCacheMisses() {
+        return inlineCacheMisses.sum();
+    }
+
+    @Override
+    public long getMethodLookups() {
+        return methodLookups.sum();
+    }
+
+    @Override
+    public long getConcatenations() {
+        return concatenations.sum();
+    }
+
+    @Override
+    public long getParseNanos() {
+        return parseNanos.sum();
+    }
+
+    @Override
+    public long getResolveNanos() {
+        return resolveNanos.sum();
+    }
+
+    @Override
+    public long getOptimizeNanos() {
+        return optimizeNanos.sum();
+    }
+
+    @Override
+    public void reset() {
+        calls.reset();
+        environments.reset();
+        fieldReads.reset();
+        methodReads.reset();
+        inlineCacheHits.reset();
+        inlineCacheMisses.reset();
+        methodLookups.reset();
+        concatenations.reset();
+        parseNanos.reset();
+        resolveNanos.reset();
+        optimizeNanos.reset();
+    }
+}
@@ -0,0 +1,29 @@
+package craftinginterpreters.lox;
+
+/* What Stats exposes over JMX, as craftinginterpreters.lox:type=Stats */
+public interface StatsMXBean {
+    long getCalls();
+
+    long getEnvironments();
+
+    long getFieldReads();
+
+    long getMethodReads();
+
+    long getInlineCacheHits();
+
+    long getInlineCacheMisses();
+
+    long getMethodLookups();
+
+    long getConcatenations();
+
+    long getParseNanos();
+
+    long getResolveNanos();
+
+    long getOptimizeNanos();
+
+    /* Start every counter again from zero */
+    void reset();
+}
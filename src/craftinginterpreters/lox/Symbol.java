@@ -0,0 +1,100 @@
+package craftinginterpreters.lox;
+
+/*
+ An interned identifier. There is exactly one Symbol per distinct name, so symbols are compared by identity,
+ and each has a small dense id that tables keyed by name, like the globals, can simply index by.
+
+ The Scanner interns identifiers straight out of its buffer, so a name it has seen before costs no allocation.
+ The table is shared by everything running in this JVM, and only ever grows.
+ */
+final class Symbol {
+    /* Symbols by hash of their name, with linear probing */
+    private static Symbol[] table = new Symbol[1024];
+    private static int count = 0;
+
+    static final Symbol INIT = of("init");
+    static final Symbol THIS = of("this");
+    static final Symbol SUPER = of("super");
+
+    final String name;
+    final int id;
+
+    private Symbol(String name, int id) {
+        this.name = name;
+        this.id = id;
+    }
+
+    /* The symbol for name */
+    static Symbol of(String name) {
+        char[] chars = name.toCharArray();
+        return intern(chars, 0, chars.length);
+    }
+
+    /* The symbol for the characters at start of chars */
+    static synchronized Symbol intern(char[] chars, int start, int length) {
+        int hash = 0;
+        for (int i = start; i < start + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+
+        /* Same hash as String.hashCode(), which the names in the table have cached */
+        int mask = table.length - 1;
+        for (int i = (hash ^ (hash >>> 16)) & mask; ; i = (i + 1) & mask) {
+            Symbol symbol = table[i];
+            if (symbol == null) {
+                symbol = new Symbol(new String(chars, start, length), count++);
+                table[i] = symbol;
+                if (count * 2 > table.length) {
+                    rehash();
+                }
+                return symbol;
+            }
+            if (symbol.name.hashCode() == hash && symbol.is(chars, start, length)) {
+                return symbol;
+            }
+        }
+    }
+
+    /* One more than the largest id handed out so far */
+    static synchronized int count() {
+        return count;
+    }
+
+    private boolean is(char[] chars, int start, int length) {
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (chars[start + i] != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void rehash() {
+        Symbol[] old = table;
+        table = new Symbol[old.length * 2];
+        int mask = table.length - 1;
+        for (Symbol symbol : old) {
+            if (symbol != null) {
+                int hash = symbol.name.hashCode();
+                int i = (hash ^ (hash >>> 16)) & mask;
+                while (table[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = symbol;
+            }
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -5,12 +5,23 @@ public class Token {
     final String lexeme;
     final Object literal;
     final int line;
+    /* The interned name of an identifier, 'this' or 'super', null for other tokens */
+    final Symbol symbol;
 
     public Token(TokenType type, String lexeme, Object literal, int line) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.symbol = null;
+    }
+
+    public Token(TokenType type, Symbol symbol, int line) {
+        this.type = type;
+        this.lexeme = symbol.name;
+        this.literal = null;
+        this.line = line;
+        this.symbol = symbol;
     }
 
     @Override
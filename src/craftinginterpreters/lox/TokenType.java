@@ -4,20 +4,28 @@ public enum TokenType {
     /* Single character tokens */
 
     /* (, ), {, } */
-    LPAREN, RPAREN, LBRACE, RBRACE,
+    LPAREN("("), RPAREN(")"), LBRACE("{"), RBRACE("}"),
     /* ,, ., -, +, ;, /, *, */
-    COMMA, DOT, MINUS, PLUS, SEMICOLON, SLASH, STAR,
+    COMMA(","), DOT("."), MINUS("-"), PLUS("+"), SEMICOLON(";"), SLASH("/"), STAR("*"),
 
     /* 1-2 character tokens */
 
     /* !, !=, =, ==, >, >=, <, <= */
-    BANG, BANGEQ, EQ, EQEQ, GREATER, GREATEREQ, LESS, LESSEQ,
+    BANG("!"), BANGEQ("!="), EQ("="), EQEQ("=="), GREATER(">"), GREATEREQ(">="), LESS("<"), LESSEQ("<="),
 
     /* Literals */
-    IDENTIFIER, STRING, NUMBER,
+    IDENTIFIER(null), STRING(null), NUMBER(null),
 
     /* Keywords */
-    AND, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR, PRINT,
-    RETURN, SUPER, THIS, TRUE, VAR, WHILE,
-    EOF
+    AND("and"), CLASS("class"), ELSE("else"), FALSE("false"), FUN("fun"), FOR("for"), IF("if"), NIL("nil"),
+    OR("or"), PRINT("print"), RETURN("return"), SUPER("super"), THIS("this"), TRUE("true"), VAR("var"),
+    WHILE("while"),
+    EOF("");
+
+    /* The text of every token of this type, so the Scanner doesn't have to copy it out of the source */
+    final String lexeme;
+
+    TokenType(String lexeme) {
+        this.lexeme = lexeme;
+    }
 }
@@ -0,0 +1,14 @@
+package craftinginterpreters.lox;
+
+/*
+ Thrown when code expecting a number gets something else, carrying the value it got instead. The caller
+ falls back to the boxed path with that value, so nothing is evaluated twice.
+ */
+public class UnexpectedResult extends RuntimeException {
+    final Object value;
+
+    public UnexpectedResult(Object value) {
+        super(null, null, false, false);
+        this.value = value;
+    }
+}
@@ -0,0 +1,466 @@
+package craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/* A stack based virtual machine that runs the bytecode produced by BytecodeCompiler. */
+class VM {
+    private static final int FRAMES_MAX = 65536;
+
+    private static class CallFrame {
+        VmClosure closure;
+        int ip;
+        /* Index of the frame's slot 0 on the value stack */
+        int base;
+        /* Times the call for JFR, when a recording is taking FunctionCall events */
+        Events.FunctionCall event;
+    }
+
+    private final Map<String, Object> globals = new HashMap<>();
+
+    private Object[] stack = new Object[256];
+    private int sp = 0;
+
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+
+    /* Upvalues still pointing into the stack, sorted so the highest slot comes first */
+    private VmUpvalue openUpvalues = null;
+
+    /* Told about every call to a Lox function while --profile is on, otherwise null */
+    Profiler profiler = null;
+
+    VM() {
+        globals.put("clock", Interpreter.CLOCK);
+    }
+
+    void interpret(VmFunction script) {
+        try {
+            VmClosure closure = new VmClosure(script);
+            push(closure);
+            callClosure(closure, 0, null);
+            run();
+        } finally {
+            resetStack();
+        }
+    }
+
+    private void resetStack() {
+        Arrays.fill(stack, 0, sp, null);
+        sp = 0;
+        frameCount = 0;
+        openUpvalues = null;
+    }
+
+    private void push(Object value) {
+        if (sp == stack.length) {
+            stack = Arrays.copyOf(stack, sp * 2);
+        }
+        stack[sp++] = value;
+    }
+
+    private Object pop() {
+        Object value = stack[--sp];
+        stack[sp] = null;
+        return value;
+    }
+
+    private Object peek(int distance) {
+        return stack[sp - 1 - distance];
+    }
+
+    private void run() {
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.constants;
+        int ip = frame.ip;
+
+        while (true) {
+            byte op = code[ip++];
+            switch (op) {
+                case OpCode.CONSTANT:
+                    push(constants[readShort(code, ip)]);
+                    ip += 2;
+                    break;
+                case OpCode.NIL:
+                    push(null);
+                    break;
+                case OpCode.TRUE:
+                    push(true);
+                    break;
+                case OpCode.FALSE:
+                    push(false);
+                    break;
+                case OpCode.POP:
+                    pop();
+                    break;
+
+                case OpCode.GET_LOCAL:
+                    push(stack[frame.base + (code[ip++] & 0xff)]);
+                    break;
+                case OpCode.SET_LOCAL:
+                    stack[frame.base + (code[ip++] & 0xff)] = peek(0);
+                    break;
+                case OpCode.GET_GLOBAL: {
+                    String name = (String)constants[readShort(code, ip)];
+                    Object value = globals.get(name);
+                    if (value == null && !globals.containsKey(name)) {
+                        throw error(frame, ip - 1, "Undefined variable '" + name + "'.");
+                    }
+                    ip += 2;
+                    push(value);
+                    break;
+                }
+                case OpCode.DEFINE_GLOBAL:
+                    globals.put((String)constants[readShort(code, ip)], pop());
+                    ip += 2;
+                    break;
+                case OpCode.SET_GLOBAL: {
+                    String name = (String)constants[readShort(code, ip)];
+                    if (!globals.containsKey(name)) {
+                        throw error(frame, ip - 1, "Undefined variable '" + name + "'.");
+                    }
+                    ip += 2;
+                    globals.put(name, peek(0));
+                    break;
+                }
+                case OpCode.GET_UPVALUE: {
+                    VmUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    push(upvalue.isOpen() ? stack[upvalue.slot] : upvalue.closed);
+                    break;
+                }
+                case OpCode.SET_UPVALUE: {
+                    VmUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    if (upvalue.isOpen()) {
+                        stack[upvalue.slot] = peek(0);
+                    } else {
+                        upvalue.closed = peek(0);
+                    }
+                    break;
+                }
+
+                case OpCode.GET_PROPERTY: {
+                    if (!(peek(0) instanceof VmInstance)) {
+                        throw error(frame, ip - 1, "Only object instances have properties.");
+                    }
+                    VmInstance instance = (VmInstance)peek(0);
+                    String name = (String)constants[readShort(code, ip)];
+
+                    Object value = instance.fields.get(name);
+                    boolean isField = value != null || instance.fields.containsKey(name);
+                    if (!isField) {
+                        if (Stats.enabled) {
+                            Stats.methodLookups.increment();
+                        }
+                        VmClosure method = instance.classs.methods.get(name);
+                        if (method == null) {
+                            throw error(frame, ip - 1, String.format("Undefined property %s.", name));
+                        }
+                        value = new VmBoundMethod(instance, method);
+                    }
+                    if (Stats.enabled) {
+                        (isField ? Stats.fieldReads : Stats.methodReads).increment();
+                    }
+                    ip += 2;
+                    pop();
+                    push(value);
+                    break;
+                }
+                case OpCode.SET_PROPERTY: {
+                    if (!(peek(1) instanceof VmInstance)) {
+                        throw error(frame, ip - 1, "Only instances have fields.");
+                    }
+                    VmInstance instance = (VmInstance)peek(1);
+                    instance.fields.put((String)constants[readShort(code, ip)], peek(0));
+                    ip += 2;
+                    Object value = pop();
+                    pop();
+                    push(value);
+                    break;
+                }
+                case OpCode.GET_SUPER: {
+                    String name = (String)constants[readShort(code, ip)];
+                    VmClass superclass = (VmClass)pop();
+                    VmClosure method = superclass.methods.get(name);
+                    if (method == null) {
+                        throw error(frame, ip - 1, String.format("Undefined property '%s'.", name));
+                    }
+                    ip += 2;
+                    push(new VmBoundMethod(pop(), method));
+                    break;
+                }
+
+                case OpCode.EQUAL: {
+                    Object right = pop();
+                    Object left = pop();
+                    push(Interpreter.isEqual(left, right));
+                    break;
+                }
+                case OpCode.GREATER:
+                    checkNumberOperands(frame, ip - 1);
+                    push((double)pop() < (double)pop());
+                    break;
+                case OpCode.GREATER_EQUAL:
+                    checkNumberOperands(frame, ip - 1);
+                    push((double)pop() <= (double)pop());
+                    break;
+                case OpCode.LESS:
+                    checkNumberOperands(frame, ip - 1);
+                    push((double)pop() > (double)pop());
+                    break;
+                case OpCode.LESS_EQUAL:
+                    checkNumberOperands(frame, ip - 1);
+                    push((double)pop() >= (double)pop());
+                    break;
+                case OpCode.ADD: {
+                    Object right = peek(0);
+                    Object left = peek(1);
+                    /* Same as the tree-walker, concatenate if either operand is a string */
+                    if (left instanceof Double && right instanceof Double) {
+                        sp -= 2;
+                        push((double)left + (double)right);
+                    } else if (left instanceof CharSequence || right instanceof CharSequence) {
+                        sp -= 2;
+                        push(LoxString.concat(left, right));
+                    } else {
+                        throw error(frame, ip - 1, "Operands must be numbers or strings.");
+                    }
+                    break;
+                }
+                case OpCode.SUBTRACT: {
+                    checkNumberOperands(frame, ip - 1);
+                    double right = (double)pop();
+                    push((double)pop() - right);
+                    break;
+                }
+                case OpCode.MULTIPLY: {
+                    checkNumberOperands(frame, ip - 1);
+                    double right = (double)pop();
+                    push((double)pop() * right);
+                    break;
+                }
+                case OpCode.DIVIDE: {
+                    checkNumberOperands(frame, ip - 1);
+                    double right = (double)pop();
+                    push((double)pop() / right);
+                    break;
+                }
+                case OpCode.NOT:
+                    push(!Interpreter.isTruthy(pop()));
+                    break;
+                case OpCode.NEGATE:
+                    if (!(peek(0) instanceof Double)) {
+                        throw error(frame, ip - 1, "Operand must be a number.");
+                    }
+                    push(-(double)pop());
+                    break;
+                case OpCode.PRINT:
+                    System.out.println(Interpreter.stringify(pop()));
+                    break;
+
+                case OpCode.JUMP:
+                    ip += 2 + readShort(code, ip);
+                    break;
+                case OpCode.JUMP_IF_FALSE:
+                    if (!Interpreter.isTruthy(peek(0))) {
+                        ip += readShort(code, ip);
+                    }
+                    ip += 2;
+                    break;
+                case OpCode.LOOP:
+                    ip += 2;
+                    ip -= readShort(code, ip - 2);
+                    break;
+
+                case OpCode.CALL: {
+                    int argCount = code[ip++] & 0xff;
+                    frame.ip = ip;
+                    callValue(peek(argCount), argCount, frame.closure.function.chunk.tokens[ip - 2]);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    break;
+                }
+                case OpCode.CLOSURE: {
+                    VmFunction function = (VmFunction)constants[readShort(code, ip)];
+                    ip += 2;
+                    VmClosure closure = new VmClosure(function);
+                    push(closure);
+                    for (int i = 0; i < closure.upvalues.length; i++) {
+                        boolean isLocal = code[ip++] == 1;
+                        int index = code[ip++] & 0xff;
+                        if (isLocal) {
+                            closure.upvalues[i] = captureUpvalue(frame.base + index);
+                        } else {
+                            closure.upvalues[i] = frame.closure.upvalues[index];
+                        }
+                    }
+                    break;
+                }
+                case OpCode.CLOSE_UPVALUE:
+                    closeUpvalues(sp - 1);
+                    pop();
+                    break;
+                case OpCode.RETURN: {
+                    Object result = pop();
+                    if (profiler != null && frame.closure.function.name != null) {
+                        profiler.exit();
+                    }
+                    if (frame.event != null) {
+                        VmFunction function = frame.closure.function;
+                        Events.endCall(frame.event, function.name, function.line);
+                        frame.event = null;
+                    }
+                    closeUpvalues(frame.base);
+                    frameCount--;
+                    Arrays.fill(stack, frame.base, sp, null);
+                    sp = frame.base;
+                    if (frameCount == 0) {
+                        return;
+                    }
+
+                    push(result);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    break;
+                }
+
+                case OpCode.CLASS: {
+                    VmClass classs = new VmClass((String)constants[readShort(code, ip)]);
+                    ip += 2;
+                    if (code[ip++] == 1) {
+                        if (!(peek(0) instanceof VmClass)) {
+                            throw error(frame, ip - 4, "Superclass must be a class.");
+                        }
+                        classs.methods.putAll(((VmClass)peek(0)).methods);
+                    }
+                    push(classs);
+                    break;
+                }
+                case OpCode.METHOD: {
+                    VmClosure method = (VmClosure)pop();
+                    ((VmClass)peek(0)).methods.put((String)constants[readShort(code, ip)], method);
+                    ip += 2;
+                    break;
+                }
+            }
+        }
+    }
+
+    private static int readShort(byte[] code, int ip) {
+        return ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+    }
+
+    private void checkNumberOperands(CallFrame frame, int ip) {
+        if (!(peek(0) instanceof Double && peek(1) instanceof Double)) {
+            throw error(frame, ip, "Operands must be numbers.");
+        }
+    }
+
+    private RuntimeError error(CallFrame frame, int ip, String message) {
+        return new RuntimeError(frame.closure.function.chunk.tokens[ip], message);
+    }
+
+    private void callValue(Object callee, int argCount, Token paren) {
+        if (callee instanceof VmClosure) {
+            callClosure((VmClosure)callee, argCount, paren);
+        } else if (callee instanceof VmBoundMethod) {
+            VmBoundMethod bound = (VmBoundMethod)callee;
+            stack[sp - argCount - 1] = bound.receiver;
+            callClosure(bound.method, argCount, paren);
+        } else if (callee instanceof VmClass) {
+            VmClass classs = (VmClass)callee;
+            stack[sp - argCount - 1] = new VmInstance(classs);
+            /* The initializer runs later in its own frame, so only creating the instance is timed */
+            Events.endInstantiation(Events.beginInstantiation(), classs.name);
+            VmClosure initializer = classs.methods.get("init");
+            if (initializer != null) {
+                callClosure(initializer, argCount, paren);
+            } else if (argCount != 0) {
+                throw new RuntimeError(paren, String.format("Expected %d arguments but got %d.", 0, argCount));
+            }
+        } else if (callee instanceof LoxCallable) {
+            LoxCallable function = (LoxCallable)callee;
+            if (argCount != function.arity()) {
+                throw new RuntimeError(paren, String.format("Expected %d arguments but got %d.", function.arity(), argCount));
+            }
+            List<Object> args = new ArrayList<>(Arrays.asList(stack).subList(sp - argCount, sp));
+            /* Natives don't need an interpreter to run */
+            Object result = function.call(null, args);
+            Arrays.fill(stack, sp - argCount - 1, sp, null);
+            sp -= argCount + 1;
+            push(result);
+        } else {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+    }
+
+    private void callClosure(VmClosure closure, int argCount, Token paren) {
+        if (argCount != closure.function.arity) {
+            throw new RuntimeError(paren, String.format("Expected %d arguments but got %d.", closure.function.arity, argCount));
+        }
+
+        if (frameCount == FRAMES_MAX) {
+            throw new RuntimeError(paren, "Stack overflow.");
+        }
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        }
+
+        CallFrame frame = frames[frameCount];
+        if (frame == null) {
+            frame = new CallFrame();
+            frames[frameCount] = frame;
+        }
+        frameCount++;
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = sp - argCount - 1;
+
+        if (Stats.enabled) {
+            Stats.calls.increment();
+        }
+        /* The top level script is the profiler's root, not a frame on its stack */
+        if (profiler != null && closure.function.name != null) {
+            profiler.enter(closure.function);
+        }
+        frame.event = closure.function.name != null ? Events.beginCall() : null;
+    }
+
+    private VmUpvalue captureUpvalue(int slot) {
+        VmUpvalue prev = null;
+        VmUpvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            prev = upvalue;
+            upvalue = upvalue.next;
+        }
+
+        if (upvalue != null && upvalue.slot == slot) {
+            return upvalue;
+        }
+
+        VmUpvalue created = new VmUpvalue(slot, upvalue);
+        if (prev == null) {
+            openUpvalues = created;
+        } else {
+            prev.next = created;
+        }
+        return created;
+    }
+
+    /* Move every captured variable at or above slot off the stack and into its upvalue */
+    private void closeUpvalues(int slot) {
+        while (openUpvalues != null && openUpvalues.slot >= slot) {
+            VmUpvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.slot];
+            upvalue.slot = -1;
+            openUpvalues = upvalue.next;
+        }
+    }
+}
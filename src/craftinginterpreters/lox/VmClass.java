@@ -0,0 +1,19 @@
+package craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+class VmClass {
+    final String name;
+    /* Inherited methods are copied in when the class is created, so lookups never walk the superclass chain */
+    final Map<String, VmClosure> methods = new HashMap<>();
+
+    VmClass(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
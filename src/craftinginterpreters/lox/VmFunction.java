@@ -0,0 +1,25 @@
+package craftinginterpreters.lox;
+
+/* The compiled form of a function declaration. Closures over it are created at runtime. */
+class VmFunction {
+    final String name;
+    final int arity;
+    /* Where the function is declared, for the profiler */
+    final int line;
+    final Chunk chunk = new Chunk();
+    int upvalueCount = 0;
+
+    VmFunction(String name, int arity, int line) {
+        this.name = name;
+        this.arity = arity;
+        this.line = line;
+    }
+
+    @Override
+    public String toString() {
+        if (name == null) {
+            return "<script>";
+        }
+        return String.format("<fn %s>", name);
+    }
+}
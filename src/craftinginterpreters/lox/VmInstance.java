@@ -0,0 +1,18 @@
+package craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+class VmInstance {
+    final VmClass classs;
+    final Map<String, Object> fields = new HashMap<>();
+
+    VmInstance(VmClass classs) {
+        this.classs = classs;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s instance", classs.name);
+    }
+}
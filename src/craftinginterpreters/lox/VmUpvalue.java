@@ -0,0 +1,20 @@
+package craftinginterpreters.lox;
+
+/*
+ A variable captured by a closure. While the variable is still live on the VM stack the upvalue just
+ remembers its slot; once the variable goes out of scope its value is moved into the upvalue itself.
+ */
+class VmUpvalue {
+    int slot;
+    Object closed;
+    VmUpvalue next;
+
+    VmUpvalue(int slot, VmUpvalue next) {
+        this.slot = slot;
+        this.next = next;
+    }
+
+    boolean isOpen() {
+        return slot >= 0;
+    }
+}
@@ -0,0 +1,53 @@
+package craftinginterpreters.tool;
+
+import craftinginterpreters.lox.Lox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+/*
+ Run a Lox script a few times in this JVM and report how much memory each run allocates, as measured by the
+ JVM's per-thread allocation counter. The first runs warm up the JIT and are not counted.
+ */
+public class AllocationBench {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: allocation_bench <script> [runs] [jlox options...]");
+            System.exit(1);
+        }
+
+        String script = args[0];
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        String[] loxArgs = new String[args.length > 2 ? args.length - 1 : 1];
+        for (int i = 2; i < args.length; i++) {
+            loxArgs[i - 2] = args[i];
+        }
+        loxArgs[loxArgs.length - 1] = script;
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            /* Warm up */
+            for (int i = 0; i < 2; i++) {
+                Lox.main(loxArgs);
+            }
+
+            for (int i = 0; i < runs; i++) {
+                long bytes = threads.getThreadAllocatedBytes(thread);
+                long start = System.nanoTime();
+                Lox.main(loxArgs);
+                long elapsed = System.nanoTime() - start;
+                bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+                out.printf("%s run %d: %.1f MB allocated, %.1f ms, %.1f MB/s%n", script, i + 1,
+                        bytes / 1e6, elapsed / 1e6, (bytes / 1e6) / (elapsed / 1e9));
+            }
+        } finally {
+            System.setOut(out);
+        }
+    }
+}
@@ -13,31 +13,35 @@ public class GenerateAst {
             System.exit(1);
         }
         String outputDir = args[0];
+        /*
+         Fields after a '|' are not constructor parameters. They are left mutable so the Resolver can
+         record what it learns about a node directly on the node.
+         */
         defineAst(outputDir, "Expr", Arrays.asList(
-                "Super      : Token keyword, Token method",
-                "This       : Token keyword",
-                "Set        : Expr object, Token name, Expr value",
-                "Get        : Expr object, Token name",
-                "Call       : Expr callee, Token paren, List<Expr> arguments",
-                "Binary     : Expr left, Token operator, Expr right",
+                "Super      : Token keyword, Token method | int depth = -1, int index",
+                "This       : Token keyword | int depth = -1",
+                "Set        : Expr object, Token name, Expr value | int site",
+                "Get        : Expr object, Token name | int site",
+                "Call       : Expr callee, Token paren, List<Expr> arguments | boolean isTailCall",
+                "Binary     : Expr left, Token operator, Expr right | int specialization",
                 "Logical    : Expr left, Token operator, Expr right",
                 "Grouping   : Expr expression",
                 "Literal    : Object value",
-                "Unary      : Token operator, Expr right",
-                "Variable   : Token name",
-                "Assign     : Token name, Expr value"
+                "Unary      : Token operator, Expr right | int specialization",
+                "Variable   : Token name | int depth = -1, int slot, Stmt.Var declaration",
+                "Assign     : Token name, Expr value | int depth = -1, int slot"
         ));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
-                "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods",
+                "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods | int slot = -1, List<Token> superMethods",
                 "Return     : Token keyword, Expr value",
-                "Function   : Token name, List<Token> parameters, List<Stmt> body",
+                "Function   : Token name, List<Token> parameters, List<Stmt> body | int slot = -1, boolean isMethod, boolean hasClosures, int frameSize, int calls, volatile JitCompiler.Compiled compiled",
                 "While      : Expr condition, Stmt body",
                 "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
-                "Block      : List<Stmt> statements",
+                "Block      : List<Stmt> statements | int frameSize",
                 "Expression : Expr expression",
                 "Print      : Expr expression",
-                "Var        : Token name, Expr initializer"
+                "Var        : Token name, Expr initializer | int slot = -1, boolean isReassigned"
         ));
     }
 
@@ -46,6 +50,7 @@ public class GenerateAst {
         System.out.println("Generating " + path + "...");
         /* Make sure there is a file to write to */
         File out = new File(path);
+        out.getParentFile().mkdirs();
         out.createNewFile();
 
         PrintWriter writer = new PrintWriter(out, "UTF-8");
@@ -60,7 +65,12 @@ public class GenerateAst {
         for (String type : types){
             String className = type.split(":")[0].trim();
             String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            String resolved = null;
+            if (fields.contains("|")) {
+                resolved = fields.split("\\|")[1].trim();
+                fields = fields.split("\\|")[0].trim();
+            }
+            defineType(writer, baseName, className, fields, resolved);
         }
 
         writer.println("");
@@ -69,7 +79,8 @@ public class GenerateAst {
         writer.close();
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList){
+    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList,
+                                   String resolvedList){
         writer.println("    static class " + className + " extends " + baseName + " {");
 
         /* Generate constructor */
@@ -92,6 +103,11 @@ public class GenerateAst {
         for (String field : fields){
             writer.println("        final " + field + ";");
         }
+        if (resolvedList != null) {
+            for (String field : resolvedList.split(", ")) {
+                writer.println("        " + field + ";");
+            }
+        }
         writer.println("    }");
     }
 
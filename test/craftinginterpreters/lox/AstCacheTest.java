@@ -0,0 +1,150 @@
+package craftinginterpreters.lox;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ Saves programs to .loxc files and loads them back. A loaded program has to run exactly like the one that
+ was saved, on every engine, and a cache file that no longer matches its script, or that was damaged, has
+ to be ignored rather than loaded.
+ */
+class AstCacheTest {
+    private static final String SOURCE = String.join("\n",
+            "class A { init(x) { this.x = x; } get() { return this.x; } }",
+            "class B < A { get() { return super.get() * 2; } }",
+            "fun count(n) { if (n == 0) return \"done\"; return count(n - 1); }",
+            "fun counter() { var i = 0; fun inc() { i = i + 1; return i; } return inc; }",
+            "var c = counter();",
+            "c();",
+            "{ var local = \"const\"; print local + c(); }",
+            "for (var i = 0; i < 3; i = i + 1) { if (false) print \"never\"; print B(i).get(); }",
+            "print count(1000);",
+            "print !nil and 1 + 2 * 3 >= 7;",
+            "");
+
+    private final PrintStream stdout = System.out;
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    @TempDir
+    Path dir;
+
+    private Path script;
+    private AstCache cache;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        System.setOut(new PrintStream(output, true, StandardCharsets.UTF_8));
+        script = dir.resolve("script.lox");
+        Files.writeString(script, SOURCE);
+        cache = new AstCache(dir.resolve("cache"));
+    }
+
+    @AfterEach
+    void restore() {
+        System.setOut(stdout);
+    }
+
+    @Test
+    void loadsWhatItSaved() throws IOException {
+        for (boolean optimized : new boolean[] {false, true}) {
+            Program compiled = compile(optimized);
+            String expected = run(compiled, Context.Engine.TREE);
+
+            cache.save(script, optimized, compiled);
+            for (Context.Engine engine : Context.Engine.values()) {
+                Program loaded = cache.load(script, optimized);
+                assertNotNull(loaded);
+                assertEquals(compiled.sites, loaded.sites);
+                assertEquals(expected, run(loaded, engine), engine + (optimized ? " -O1" : " -O0"));
+            }
+        }
+    }
+
+    @Test
+    void ignoresMissingFile() throws IOException {
+        assertNull(cache.load(script, true));
+    }
+
+    @Test
+    void ignoresChangedSource() throws IOException {
+        cache.save(script, true, compile(true));
+        Files.writeString(script, SOURCE + "print \"changed\";\n");
+        assertNull(cache.load(script, true));
+
+        /* Saving again replaces the stale file */
+        cache.save(script, true, compile(true));
+        assertNotNull(cache.load(script, true));
+    }
+
+    @Test
+    void ignoresOtherOptimizationLevel() throws IOException {
+        cache.save(script, false, compile(false));
+        assertNull(cache.load(script, true));
+        assertNotNull(cache.load(script, false));
+    }
+
+    @Test
+    void ignoresCorruptedBody() throws IOException {
+        cache.save(script, true, compile(true));
+        Path file = cacheFile();
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 10] ^= 0x40;
+        Files.write(file, bytes);
+        assertNull(cache.load(script, true));
+    }
+
+    @Test
+    void ignoresTruncatedFile() throws IOException {
+        cache.save(script, true, compile(true));
+        Path file = cacheFile();
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length / 2));
+        assertNull(cache.load(script, true));
+    }
+
+    private Program compile(boolean optimized) throws IOException {
+        boolean optimize = Lox.optimize;
+        Lox.optimize = optimized;
+        try {
+            CompileErrors errors = new CompileErrors();
+            Program program = Lox.compile(Scanner.open(script, errors), errors);
+            assertNotNull(program);
+            return program;
+        } finally {
+            Lox.optimize = optimize;
+        }
+    }
+
+    private String run(Program program, Context.Engine engine) {
+        output.reset();
+        JitCompiler jit = engine == Context.Engine.JIT
+                ? new JitCompiler(1, null, Runnable::run, JitCompiler.systemJavac()) : null;
+        assertTrue(new Context(engine, jit).run(program), engine + " failed");
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    private Path cacheFile() throws IOException {
+        try (Stream<Path> files = Files.list(dir.resolve("cache"))) {
+            List<Path> loxc = files.filter(path -> path.toString().endsWith(".loxc")).toList();
+            assertEquals(1, loxc.size());
+            return loxc.get(0);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ Runs one Program in many Contexts on several threads at once. The script checks its own results and stops
+ with a runtime error if anything is off, so a context seeing another's globals, instances or inline cache
+ entries, or feedback left in the shared tree by a racing thread, fails the run. Each context also runs the
+ program more than once, as the REPL would, redefining its classes and so making new shapes for its caches.
+ The JIT compiles in the background, so functions switch to compiled code while other contexts run them.
+ */
+class ConcurrentContextsTest {
+    private static final int THREADS = 8;
+    private static final int CONTEXTS = 32;
+    private static final int RUNS = 3;
+
+    private static final String SOURCE = String.join("\n",
+            "class A { init(x) { this.x = x; this.y = x * 2; } sum() { return this.x + this.y; } }",
+            "class B < A {",
+            "  init(x) { this.y = x; this.x = x * 3; this.z = 1; }",
+            "  sum() { return super.sum() + this.z; }",
+            "}",
+            "class C { init() { this.q = 5; } sum() { return this.q; } }",
+            "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }",
+            "fun counter() { var i = 0; fun inc() { i = i + 1; return i; } return inc; }",
+            "fun count(n) { if (n == 0) return \"done\"; return count(n - 1); }",
+            "var total = 0;",
+            "var expected = 0;",
+            "var c = counter();",
+            "var s = \"\";",
+            "var k = 0;",
+            "for (var i = 0; i < 2000; i = i + 1) {",
+            "  var o;",
+            "  if (k == 0) { o = A(i); expected = expected + 3 * i; }",
+            "  else if (k == 1) { o = B(i); expected = expected + 4 * i + 1; }",
+            "  else { o = C(); expected = expected + 5; }",
+            "  k = k + 1; if (k == 3) k = 0;",
+            "  total = total + o.sum();",
+            "  c();",
+            "  s = s + \"ab\";",
+            "}",
+            "if (total != expected) nil + \"total\";",
+            "if (c() != 2001) nil + \"counter\";",
+            "if (fib(15) != 610) nil + \"fib\";",
+            "if (count(500) != \"done\") nil + \"count\";",
+            "");
+
+    @ParameterizedTest
+    @EnumSource(Context.Engine.class)
+    void contextsRunOneProgramAtOnce(Context.Engine engine) throws Exception {
+        Program program = Program.compile(SOURCE, new CompileErrors());
+        assertNotNull(program);
+
+        JitCompiler jit = engine == Context.Engine.JIT ? new JitCompiler(1, null) : null;
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < CONTEXTS; i++) {
+                results.add(pool.submit(() -> {
+                    Context context = new Context(engine, jit);
+                    for (int run = 0; run < RUNS; run++) {
+                        if (!context.run(program)) {
+                            RuntimeError error = context.error();
+                            if (error == null) return "did not compile";
+                            return error.getMessage() + " [line " + error.token.line + "]";
+                        }
+                    }
+                    return null;
+                }));
+            }
+
+            for (Future<String> result : results) {
+                String failure = result.get();
+                assertTrue(failure == null, () -> engine + ": " + failure);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /*
+     Runs a script a line at a time, each line its own Program, as the REPL would. Each program numbers its
+     property access sites from 0, so code from one program calling into another has to use the caches of
+     the program it came from.
+     */
+    private static final String[] LINES = {
+            "class P { init(x) { this.x = x; } get() { return this.x; } set(v) { this.x = v; return this; } }",
+            "fun read(o) { return o.x + o.get(); }",
+            "class Q < P { init() { super.init(7); this.y = 1; } get() { return this.y + super.get(); } }",
+            "var p = P(1); var q = Q(); var total = 0;",
+            "for (var i = 0; i < 100; i = i + 1) { total = total + read(p) + read(q) + q.set(i).x + p.get(); }",
+            "if (total != 15066) nil + \"total\";",
+            "fun later(o) { o.z = o.x; return o.z + read(o); }",
+            "if (later(p) != 3 or later(q) != 298) nil + \"later\";",
+    };
+
+    @ParameterizedTest
+    @EnumSource(Context.Engine.class)
+    void contextsRunProgramsLineByLine(Context.Engine engine) throws Exception {
+        List<Program> programs = new ArrayList<>();
+        for (String line : LINES) {
+            Program program = Program.compile(line, new CompileErrors());
+            assertNotNull(program, line);
+            programs.add(program);
+        }
+
+        JitCompiler jit = engine == Context.Engine.JIT ? new JitCompiler(1, null) : null;
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < CONTEXTS; i++) {
+                results.add(pool.submit(() -> {
+                    Context context = new Context(engine, jit);
+                    for (int run = 0; run < RUNS; run++) {
+                        for (Program program : programs) {
+                            if (!context.run(program)) {
+                                RuntimeError error = context.error();
+                                if (error == null) return "did not compile";
+                                return error.getMessage() + " [line " + error.token.line + "]";
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+
+            for (Future<String> result : results) {
+                String failure = result.get();
+                assertTrue(failure == null, () -> engine + ": " + failure);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /* Each compile gets back exactly its own errors, however many other threads are compiling at once */
+    @Test
+    void compilesKeepTheirOwnErrors() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < CONTEXTS; i++) {
+                /* Each thread's error is on a line of its own */
+                String source = SOURCE + "\n".repeat(i) + "return;";
+                int line = (int)source.chars().filter(c -> c == '\n').count() + 1;
+                List<String> expected = List.of(
+                        "[line " + line + "] Error  at 'return': Cannot return from top level code.");
+                results.add(pool.submit(() -> {
+                    for (int run = 0; run < RUNS * 10; run++) {
+                        CompileErrors errors = new CompileErrors();
+                        if (Program.compile(source, errors) != null || !errors.messages().equals(expected)) {
+                            return "line " + line + ": " + errors.messages();
+                        }
+                        CompileErrors none = new CompileErrors();
+                        if (Program.compile(SOURCE, none) == null) {
+                            return none.messages().toString();
+                        }
+                    }
+                    return null;
+                }));
+            }
+
+            for (Future<String> result : results) {
+                String failure = result.get();
+                assertNull(failure, failure);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package craftinginterpreters.lox;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/*
+ Runs every script in test/scripts on every engine, with and without the Optimizer, and compares what it
+ prints with the script's .out file: its output, then any compile errors or the runtime error it stopped
+ with, as jlox prints them. The JIT compiles each function on its first call, before running it, so its
+ generated code runs as much of each script as it can. The VM doesn't eliminate tail calls, so it skips
+ the tail_ scripts. A script that stops with a runtime error is run again in the same context, as the REPL
+ would, and has to stop with the same error, so the feedback its first run left behind can't change it.
+ */
+class GoldenOutputTest {
+    private static final Path SCRIPTS = Path.of(System.getProperty("lox.scripts", "test/scripts"));
+
+    private final PrintStream stdout = System.out;
+    private final PrintStream stderr = System.err;
+    private final boolean optimize = Lox.optimize;
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    static Stream<Arguments> runs() throws IOException {
+        List<Path> scripts = new ArrayList<>();
+        try (Stream<Path> files = Files.list(SCRIPTS)) {
+            files.filter(path -> path.toString().endsWith(".lox")).sorted().forEach(scripts::add);
+        }
+
+        List<Arguments> runs = new ArrayList<>();
+        for (Path script : scripts) {
+            String name = script.getFileName().toString();
+            for (Context.Engine engine : Context.Engine.values()) {
+                if (engine == Context.Engine.VM && name.startsWith("tail_")) continue;
+                runs.add(Arguments.of(name, engine, "-O0"));
+                runs.add(Arguments.of(name, engine, "-O1"));
+            }
+        }
+        return runs.stream();
+    }
+
+    @BeforeEach
+    void capture() {
+        PrintStream captured = new PrintStream(output, true, StandardCharsets.UTF_8);
+        System.setOut(captured);
+        System.setErr(captured);
+    }
+
+    @AfterEach
+    void restore() {
+        System.setOut(stdout);
+        System.setErr(stderr);
+        Lox.optimize = optimize;
+    }
+
+    @ParameterizedTest(name = "{0} {1} {2}")
+    @MethodSource("runs")
+    void printsExpectedOutput(String script, Context.Engine engine, String level) throws IOException {
+        String source = Files.readString(SCRIPTS.resolve(script));
+        Lox.optimize = level.equals("-O1");
+
+        CompileErrors errors = new CompileErrors();
+        Program program = Program.compile(source, errors);
+        errors.messages().forEach(System.out::println);
+        if (program != null) {
+            JitCompiler jit = engine == Context.Engine.JIT
+                    ? new JitCompiler(1, null, Runnable::run, JitCompiler.systemJavac()) : null;
+            Context context = new Context(engine, jit);
+            if (!context.run(program)) {
+                RuntimeError error = context.error();
+                if (error == null) {
+                    context.compileErrors().forEach(System.out::println);
+                } else {
+                    System.out.println(error.getMessage() + "\n[line " + error.token.line + "]");
+                    assertEquals(describe(error), rerun(context, program), "second run");
+                }
+            }
+        }
+
+        String expected = Files.readString(SCRIPTS.resolve(script.replace(".lox", ".out")));
+        assertEquals(expected, output.toString(StandardCharsets.UTF_8));
+    }
+
+    /* Runs the program again with its output thrown away, and describes the error it stopped with */
+    private static String rerun(Context context, Program program) {
+        PrintStream captured = System.out;
+        System.setOut(new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8));
+        try {
+            return context.run(program) ? "no error" : describe(context.error());
+        } finally {
+            System.setOut(captured);
+        }
+    }
+
+    private static String describe(RuntimeError error) {
+        return error == null ? "no program" : error.getMessage() + " [line " + error.token.line + "]";
+    }
+}
@@ -0,0 +1,51 @@
+package craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/* How the JIT gets its classes: in the background by default, and not at all without javac */
+class JitCompilerTest {
+    /* Stops with a runtime error if add() ever gives the wrong answer */
+    private static final String SOURCE = String.join("\n",
+            "fun add(a, b) { return a + b; }",
+            "var total = 0;",
+            "for (var i = 0; i < 100; i = i + 1) total = add(total, i);",
+            "if (total != 4950) nil + \"total\";",
+            "");
+
+    private static Stmt.Function add(Program program) {
+        return (Stmt.Function)program.statements.get(0);
+    }
+
+    /* As on a JRE, where ToolProvider has no javac to give */
+    @Test
+    void withoutJavacFunctionsStayInterpreted() {
+        Program program = Program.compile(SOURCE, new CompileErrors());
+        assertNotNull(program);
+
+        Context context = new Context(Context.Engine.JIT, new JitCompiler(1, null, Runnable::run, null));
+        assertTrue(context.run(program));
+        assertSame(JitCompiler.FAILED, add(program).compiled);
+        assertTrue(context.run(program));
+    }
+
+    @Test
+    void compilesInTheBackground() throws InterruptedException {
+        Program program = Program.compile(SOURCE, new CompileErrors());
+        assertNotNull(program);
+
+        Context context = new Context(Context.Engine.JIT, new JitCompiler(1, null));
+        assertTrue(context.run(program));
+
+        long deadline = System.nanoTime() + 60_000_000_000L;
+        while (add(program).compiled == null || add(program).compiled.constructor == null) {
+            assertTrue(add(program).compiled != JitCompiler.FAILED, "add() failed to compile");
+            assertTrue(System.nanoTime() < deadline, "add() was not compiled in time");
+            Thread.sleep(10);
+        }
+        assertTrue(context.run(program));
+    }
+}
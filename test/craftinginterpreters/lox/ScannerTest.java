@@ -0,0 +1,97 @@
+package craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ Scans files through Scanner.open(), which decodes them as they are read. Golden scripts are read whole as
+ UTF-8, so input that isn't valid UTF-8 is tested here instead.
+ */
+class ScannerTest {
+    private final CompileErrors errors = new CompileErrors();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void stopsAtUndecodableByte() throws IOException {
+        Scanner scanner = open(bytes("print \"ok\";\nprint \"caf", 0xff, "\";\nprint \"after\";\n"));
+
+        assertEquals(List.of("print", "\"ok\"", ";", "print", ""), lexemes(scanner));
+        assertTrue(scanner.failed());
+        assertEquals(List.of("[line 2] Error : Source is not valid UTF-8."), errors.messages());
+
+        /* The rest of the file is never scanned, and asking again only gets EOF without a second report */
+        assertEquals(TokenType.EOF, scanner.nextToken().type);
+        assertEquals(List.of("[line 2] Error : Source is not valid UTF-8."), errors.messages());
+    }
+
+    @Test
+    void reportsTheLineOfAnUndecodableByteAfterRefilling() throws IOException {
+        String lines = "print 1;\n".repeat(5000);
+        Scanner scanner = open(bytes(lines, 0xc3, 0x28, "\n"));
+
+        assertEquals(3 * 5000 + 1, lexemes(scanner).size());
+        assertTrue(scanner.failed());
+        assertEquals(List.of("[line 5001] Error : Source is not valid UTF-8."), errors.messages());
+    }
+
+    @Test
+    void decodesCharactersSplitAcrossReads() throws IOException {
+        /* Start a surrogate pair on the last character of the scanner's first 8192-character read */
+        String padding = "// " + "x".repeat(8180) + "\n";
+        String text = "😀 café €";
+        Scanner scanner = open(bytes(padding, "print \"" + text + "\";\n"));
+
+        Token print = scanner.nextToken();
+        Token string = scanner.nextToken();
+        assertEquals(TokenType.PRINT, print.type);
+        assertEquals(2, print.line);
+        assertEquals(text, string.literal.toString());
+        assertEquals(List.of(";", ""), lexemes(scanner));
+        assertFalse(scanner.failed());
+        assertFalse(errors.hasErrors());
+    }
+
+    private Scanner open(byte[] source) throws IOException {
+        Path path = dir.resolve("script.lox");
+        Files.write(path, source);
+        return Scanner.open(path, errors);
+    }
+
+    /* Each part is either a string, written as UTF-8, or a single raw byte */
+    private static byte[] bytes(Object... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Object part : parts) {
+            if (part instanceof String) {
+                out.writeBytes(((String)part).getBytes(StandardCharsets.UTF_8));
+            } else {
+                out.write((int)part);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /* The lexemes of the rest of the tokens, up to and including EOF */
+    private static List<String> lexemes(Scanner scanner) {
+        List<String> lexemes = new ArrayList<>();
+        Token token;
+        do {
+            token = scanner.nextToken();
+            lexemes.add(token.lexeme);
+        } while (token.type != TokenType.EOF);
+        return lexemes;
+    }
+}